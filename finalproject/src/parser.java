@@ -3,6 +3,7 @@ import Zql.*;
 import simpledb.*;
 import java.io.*;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -31,13 +32,21 @@ public class parser {
     }
 
     static void processExpression(TransactionId tid, ZExpression wx, HashMap<String,DbIterator> tableMap, HashMap<String,String> equivMap) throws ParsingException {
+        processExpression(tid, wx, tableMap, equivMap, null);
+    }
+
+    /**
+     * @param sortField the field of an ascending ORDER BY, or null; joins on
+     *   it are done by sort-merge so that the result comes out in order
+     */
+    static void processExpression(TransactionId tid, ZExpression wx, HashMap<String,DbIterator> tableMap, HashMap<String,String> equivMap, String sortField) throws ParsingException {
         if (wx.getOperator().equals("AND")) {
             for (int i = 0; i < wx.nbOperands(); i++) {
                 if (!(wx.getOperand(i) instanceof ZExpression)) {
                     throw new ParsingException("Nested queries are currently unsupported.");
                 }
                 ZExpression newWx = (ZExpression)wx.getOperand(i);
-                processExpression(tid, newWx, tableMap, equivMap);
+                processExpression(tid, newWx, tableMap, equivMap, sortField);
 
             }
         } else if (wx.getOperator().equals("OR")) {
@@ -94,18 +103,18 @@ public class parser {
                 }
 
                 DbIterator join;
-                if (op == Predicate.Op.EQUALS) {
-                    try {
-                        //dynamically load HashEquiJoin -- if it doesn't exist, just fall back on regular join
-                        Class<?> c = Class.forName("simpledb.HashEquiJoin");
-                        //System.out.println("Loading join: " + c);
-			java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                        join = (DbIterator)ct.newInstance(new Object[]{jp,p1info.oldNode,p2info.oldNode});
-                    } catch (Exception e) {
-                        join = new Join(jp, p1info.oldNode, p2info.oldNode);
-                    }
+                boolean sortedOutput = sortField != null &&
+                    (sortField.equals(td1.getFieldName(p1info.fieldId)) ||
+                     (op == Predicate.Op.EQUALS && sortField.equals(td2.getFieldName(p2info.fieldId))));
+                if (sortedOutput && op != Predicate.Op.LIKE) {
+                    join = new SortMergeJoin(jp, p1info.oldNode, p2info.oldNode);
+                } else if (op == Predicate.Op.EQUALS) {
+                    // hash the right input, spilling partitions to disk beyond
+                    // HybridHashJoin.DEFAULT_MEMORY_BYTES (simpledb.JoinMemoryBytes)
+                    join = new HybridHashJoin(jp, p1info.oldNode, p2info.oldNode);
                 } else {
-                    join = new Join(jp, p1info.oldNode, p2info.oldNode);
+                    // no hashing for <, >, LIKE; scan the inner once per block of outer tuples
+                    join = new BlockNestedLoopJoin(jp, p1info.oldNode, p2info.oldNode);
                 }
 
                 if (op1const) {
@@ -190,6 +199,8 @@ public class parser {
 
             while ((line = br.readLine()) != null) {
                 //assume line is of the format name (field type, field type, ...)
+                //optionally followed by "mmap" to memory map the table and
+                //"pax" if the file was written in PAX (column) layout
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -211,8 +222,26 @@ public class parser {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"));
+                //options may follow the schema, e.g. name (field type) mmap
+                boolean mmap = false, pax = false;
+                String opts = line.substring(line.indexOf(")") + 1).trim();
+                for (String opt : opts.split("\\s+")) {
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.toLowerCase().equals("mmap"))
+                        mmap = true;
+                    else if (opt.toLowerCase().equals("pax"))
+                        pax = true;
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(name + ".dat");
+                HeapFile tabHf = pax ? new PaxFile(dataFile) : new HeapFile(dataFile);
                 Database.getCatalog().addTable(tabHf,t,name);
+                if (mmap)
+                    Database.getCatalog().setMemoryMapped(tabHf.id(), true);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -224,7 +253,21 @@ public class parser {
         }
     }
 
+    /** Limit given for a query without a LIMIT clause. */
+    static final int NO_LIMIT = -1;
+
+    // a trailing LIMIT clause, which Zql does not parse
+    private static final Pattern LIMIT = Pattern.compile("(?is)(.*)\\bLIMIT\\s+(\\d+)\\s*;\\s*");
+
     public static DbIterator parseQuery(TransactionId tid, ZQuery q) throws IOException, Zql.ParseException, ParsingException {
+        return parseQuery(tid, q, NO_LIMIT);
+    }
+
+    /**
+     * @param limit the most tuples the query may return, or NO_LIMIT; a
+     *   limit requires an ORDER BY, and is planned as a TopK
+     */
+    public static DbIterator parseQuery(TransactionId tid, ZQuery q, int limit) throws IOException, Zql.ParseException, ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         HashMap<String,DbIterator> tableMap = new HashMap<String,DbIterator>();
@@ -251,6 +294,14 @@ public class parser {
             }
         }
 
+        // an ascending ORDER BY on a join field can come from a sort-merge join
+        String sortField = null;
+        if (q.getOrderBy() != null && q.getOrderBy().size() == 1) {
+            ZOrderBy oby = (ZOrderBy)q.getOrderBy().elementAt(0);
+            if (oby.getAscOrder() && oby.getExpression() instanceof ZConstant)
+                sortField = ((ZConstant)oby.getExpression()).getValue();
+        }
+
         // now parse the where clause, creating Filter and Join nodes as needed
         ZExp w = q.getWhere();
         if (w != null) {
@@ -260,7 +311,7 @@ public class parser {
                 throw new ParsingException("Nested queries are currently unsupported.");
             }
             ZExpression wx = (ZExpression)w;
-            processExpression(tid, wx, tableMap, equivMap);
+            processExpression(tid, wx, tableMap, equivMap, sortField);
 
             if (tableMap.size() > 1) {
                 throw new ParsingException("Query does not include join expressions joining all nodes!");
@@ -271,20 +322,16 @@ public class parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new ParsingException("At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (! (gbe instanceof ZConstant)) {
                     throw new ParsingException("Complex grouping expressions (" + gbe + ") not supported.");
                 }
-                groupByField = ((ZConstant)gbe).getValue();
-                System.out.println ("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(((ZConstant)gbe).getValue());
+                System.out.println ("GROUP BY FIELD : " + ((ZConstant)gbe).getValue());
             }
 
         }
@@ -292,8 +339,8 @@ public class parser {
         // walk the select list, pick out aggregates, and check for query validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        ArrayList<String> aggFields = new ArrayList<String>();
+        ArrayList<String> aggFuns = new ArrayList<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -301,80 +348,71 @@ public class parser {
                 throw new ParsingException("Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new ParsingException("Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
-                aggFun = si.getAggregate();
-                System.out.println ("Aggregate field is " + aggField + ", agg fun is : " + aggFun);
+                String aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
+                aggFields.add(aggField);
+                aggFuns.add(si.getAggregate());
+                System.out.println ("Aggregate field is " + aggField + ", agg fun is : " + si.getAggregate());
             } else {
-                if (groupByField != null && !groupByField.equals(si.getTable() + "." + si.getColumn())) {
+                if (!groupByFields.isEmpty() && !groupByFields.contains(si.getTable() + "." + si.getColumn())) {
                     throw new ParsingException("Non-aggregate field " + si.getColumn() + " does not appear in GROUP BY list.");
                 }
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new ParsingException("GROUP BY without aggregation.");
         }
 
         //walk the select list again, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
+        int aggIndex = 0;
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
             if (si.getAggregate() != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the aggregate node returns the group by fields, then each aggregate
+                outFields.add(groupByFields.size() + aggIndex++);
+                outTypes.add(Type.INT_TYPE);
+
+            } else {
                 TupleDesc td = node.getTupleDesc();
+                String name = si.getTable() + "." + si.getColumn();
                 int  id;
                 try {
-                    id = td.nameToId(aggField);
+                    id = td.nameToId(name);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException(e);
                 }
-                outTypes.add(td.getType(id));
-
-            } else {
-                if (aggField != null) {
-                    if (groupByField == null) {
+                if (!aggFields.isEmpty()) {
+                    if (groupByFields.isEmpty()) {
                         throw new ParsingException("Field " + si + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
-                    TupleDesc td = node.getTupleDesc();
-                    int  id;
-                    try {
-                        id = td.nameToId(groupByField);
-                    } catch (NoSuchElementException e) {
-                        throw new ParsingException(e);
-                    }
-                    outTypes.add(td.getType(id));
+                    outFields.add(groupByFields.indexOf(name));
                 } else {
-                    TupleDesc td = node.getTupleDesc();
-                    int id;
-                    try {
-                        id = td.nameToId(si.getTable() + "." + si.getColumn());
-                    } catch (NoSuchElementException e) {
-                        throw new ParsingException(e);
-                    }
                     outFields.add(id);
-                    outTypes.add(td.getType(id));
                 }
+                outTypes.add(td.getType(id));
             }
         }
 
-        //construct aggregate node
-        if (aggFun != null) {
+        //construct aggregate node; all aggregates are computed in one pass
+        if (!aggFuns.isEmpty()) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] afields = new int[aggFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggFuns.size()];
+            int[] gfields = new int[groupByFields.size()];
             try {
-                aggNode = new Aggregate(node,
-                        td.nameToId(aggField),
-                        groupByField == null?Aggregator.NO_GROUPING:td.nameToId(groupByField),
-                                getAggOp(aggFun));
+                for (int i = 0; i < afields.length; i++) {
+                    // COUNT(*) counts every tuple, so any field will do
+                    afields[i] = aggFields.get(i).equals("*") ? 0 : td.nameToId(aggFields.get(i));
+                    aops[i] = getAggOp(aggFuns.get(i));
+                }
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.nameToId(groupByFields.get(i));
             } catch (NoSuchElementException e) {
                 throw new ParsingException(e);
             }
-            node = aggNode;
+            node = new Aggregate(node, afields, gfields, aops);
         }
 
         // sort the data
@@ -382,16 +420,31 @@ public class parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
                 Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1)  {
-                throw new ParsingException("Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new ParsingException("Complex ORDER BY's are not supported");
+            int[] sortIds = new int[obys.size()];
+            boolean[] ascs = new boolean[obys.size()];
+            for (int i = 0; i < obys.size(); i++) {
+                ZOrderBy oby = obys.elementAt(i);
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new ParsingException("Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant)oby.getExpression();
+                try {
+                    sortIds[i] = node.getTupleDesc().nameToId(f.getValue());
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException(e);
+                }
+                ascs[i] = oby.getAscOrder();
             }
-            ZConstant f = (ZConstant)oby.getExpression();
-            node = new OrderBy(node.getTupleDesc().nameToId(f.getValue()), oby.getAscOrder(), node);
-
+            // only the first tuples of the order are wanted: keep them in a bounded heap
+            if (limit != NO_LIMIT)
+                node = new TopK(sortIds, ascs, limit, node);
+            // no need to sort if the plan already returns tuples in order
+            else if (!(sortIds.length == 1 && node instanceof Ordered
+                       && ((Ordered)node).isSortedOn(sortIds[0], ascs[0])))
+                node = new OrderBy(sortIds, ascs, node);
+
+        } else if (limit != NO_LIMIT) {
+            throw new ParsingException("LIMIT is only supported with ORDER BY.");
         }
         return new Project(outFields,outTypes, node);
 
@@ -400,9 +453,13 @@ public class parser {
     static Transaction curtrans = null;
 
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, ParsingException, Zql.ParseException  {
+        handleQueryStatement(s, NO_LIMIT);
+    }
+
+    public static void handleQueryStatement(ZQuery s, int limit) throws TransactionAbortedException, DbException, IOException, ParsingException, Zql.ParseException  {
         // and run it
         DbIterator node;
-        node = parseQuery(curtrans.tid(), s);
+        node = parseQuery(curtrans.tid(), s, limit);
 
         Query sdbq = new Query(node, curtrans.tid());
         // XXX print field names
@@ -531,9 +588,24 @@ public class parser {
 
     public static void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // strip a LIMIT clause off the end of the statement before Zql sees it
+            String sql = new String(is.readAllBytes(), "UTF-8");
+            int limit = NO_LIMIT;
+            Matcher m = LIMIT.matcher(sql);
+            if (m.matches()) {
+                sql = m.group(1) + ";";
+                try {
+                    limit = Integer.parseInt(m.group(2));
+                } catch (NumberFormatException e) {
+                    throw new ParsingException("LIMIT out of range");
+                }
+            }
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
+            if (limit != NO_LIMIT && !(s instanceof ZQuery))
+                throw new ParsingException("LIMIT is only supported in SELECT statements.");
+
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt)s);
             else if (s instanceof ZInsert)
@@ -541,7 +613,7 @@ public class parser {
             else if (s instanceof ZDelete)
                 handleDeleteStatement((ZDelete)s);
             else if (s instanceof ZQuery)
-                handleQueryStatement((ZQuery)s);
+                handleQueryStatement((ZQuery)s, limit);
             else {
                 System.out.println("Can't parse " + s + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
             }
@@ -575,6 +647,7 @@ public class parser {
         "delete",
         "values",
         "into",
+        "limit",
     };
 
     public static void main(String argv[]) throws IOException {
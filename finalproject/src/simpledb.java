@@ -5,10 +5,17 @@ import java.io.*;
 public class simpledb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file; convertpax writes pages in column (PAX) layout
+        if(args[0].equals("convert") || args[0].equals("convertpax")) {
+        boolean pax = args[0].equals("convertpax");
         try {
-        if (args.length == 3) {
+        if (args.length == 3 && pax) {
+            HeapFileEncoder.convertPax(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        BufferPool.PAGE_SIZE,
+                        Integer.parseInt(args[2]));
+        }
+        else if (args.length == 3) {
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
                         BufferPool.PAGE_SIZE,
@@ -27,7 +34,13 @@ public class simpledb {
                 return;
             }
             }
-            HeapFileEncoder.convert(new File(args[1]),
+            if (pax)
+                HeapFileEncoder.convertPax(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        BufferPool.PAGE_SIZE,
+                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
+            else
+                HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
                         BufferPool.PAGE_SIZE,
                         Integer.parseInt(args[2]), ts.toArray(new Type[0]));
@@ -1,22 +1,53 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The Aggregator operator that computes an aggregate (e.g., sum, avg, max,
- * min).  Note that we only support aggregates over a single column, grouped
- * by a single column.
+ * min).  Several aggregates, grouped by any number of columns, are computed
+ * together by a MultiAggregator in a single pass over the child.
+ * <p>
+ * When the child is a SeqScan of a HeapFile and the parallelism is more
+ * than one, the table is split into that many page ranges.  Each range is
+ * aggregated by a worker thread into its own Aggregator, and the workers'
+ * partial results are merged at the end (see Aggregator#partials).
+ * <p>
+ * Grouped aggregates are computed by a SpillingAggregator, which writes
+ * groups to disk once they outgrow the memory budget.
+ * <p>
+ * Otherwise, when the child is a BatchIterator and there is no grouping,
+ * the child is read a batch at a time and each batch folded into a
+ * MultiAggregator column by column.
  */
-public class Aggregate extends AbstractDbIterator {
+public class Aggregate extends AbstractDbIterator implements BatchIterator {
+
+    /** Default number of threads to aggregate a table scan with. */
+    public static final int DEFAULT_PARALLELISM =
+        Integer.getInteger("simpledb.AggregateThreads", 1);
+
+    private static final ExecutorService workers =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-aggregate");
+                t.setDaemon(true);
+                return t;
+            }
+        });
 
     private final DbIterator child;
-    private final int afield;
-    private final int gfield;
-    private final Aggregator.Op aop;
+    private final int[] afields;
+    // the grouping columns, empty if there is no grouping
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
 
+    private int parallelism = DEFAULT_PARALLELISM;
+    private long memoryBytes = SpillingAggregator.DEFAULT_MEMORY_BYTES;
     private Aggregator aggregator;
     private DbIterator aggIter;
     private TupleDesc td; // result schema
+    private TupleBatch batch; // the batch nextBatch fills
 
     /**
      * Constructor.  
@@ -30,10 +61,29 @@ public class Aggregate extends AbstractDbIterator {
      * @param aop The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield },
+             gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+             new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over the same input.  The result
+     * has the grouping columns, in order, followed by one column per
+     * aggregate.
+     *
+     * @param child The DbIterator that is feeding us tuples.
+     * @param afields The column each aggregate is computed over.
+     * @param gfields The columns over which we are grouping the result;
+     *   empty if there is no grouping
+     * @param aops The aggregation operator of each aggregate
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator for each aggregate field");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
         this.aggregator = null;
         this.aggIter = null;
         this.td = null;
@@ -56,44 +106,208 @@ public class Aggregate extends AbstractDbIterator {
         }
     }
 
+    /**
+     * Set the number of threads open() aggregates a table scan with; 1
+     * aggregates on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /** @return the number of threads open() aggregates a table scan with */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the approximate number of bytes of groups to hold in memory; a
+     * grouped aggregate spills to disk beyond it.  Parallel workers share
+     * the budget.
+     */
+    public void setMemoryBytes(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
     public void open() throws NoSuchElementException, DbException,
         TransactionAbortedException {
         child.open();
+        aggregator = newAggregator(memoryBytes);
+
+        // if merging fails, close() deletes whatever the aggregator spilled
+        boolean merged = false;
+        try {
+            int pages = child instanceof SeqScan ? ((SeqScan) child).numPages() : -1;
+            if (parallelism > 1 && pages > 1) {
+                mergeParallel((SeqScan) child, pages);
+            } else if (batched()) {
+                BatchIterator batches = (BatchIterator) child;
+                TupleBatch b;
+                while ((b = batches.nextBatch()) != null)
+                    ((MultiAggregator) aggregator).merge(b);
+            } else {
+                // Merge all tuples
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    aggregator.merge(t);
+                }
+            }
+            merged = true;
+        } finally {
+            if (!merged)
+                close();
+        }
+
+        // Build result iterator
+        aggIter = aggregator.iterator();
+        aggIter.open();
+
+        // Build TupleDesc with names
+        td = computeTupleDesc(child.getTupleDesc());
+    }
+
+    /**
+     * @return true if the child is read a batch at a time, into a
+     *   MultiAggregator: it must be a BatchIterator, with no grouping and
+     *   only the aggregates a MultiAggregator supports
+     */
+    private boolean batched() {
+        if (!(child instanceof BatchIterator) || gfields.length > 0)
+            return false;
         TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            Type t = childTd.getType(afields[i]);
+            if (t != Type.INT_TYPE && !(t == Type.STRING_TYPE && aops[i] == Aggregator.Op.COUNT))
+                return false;
+        }
+        return true;
+    }
+
+    private Aggregator newAggregator(long memoryBytes) throws DbException {
+        TupleDesc childTd = child.getTupleDesc();
+        if (afields.length > 1 || gfields.length > 1 || batched()) {
+            Type[] aTypes = types(childTd, afields);
+            for (int i = 0; i < aTypes.length; i++) {
+                if (aTypes[i] != Type.INT_TYPE && aTypes[i] != Type.STRING_TYPE)
+                    throw new DbException("Unsupported aggregate field type");
+            }
+            if (gfields.length > 0)
+                return new SpillingAggregator(gfields, types(childTd, gfields), afields,
+                                              aTypes, aops, memoryBytes);
+            return new MultiAggregator(gfields, new Type[0], afields, aTypes, aops);
+        }
+        int afield = afields[0];
+        int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        Aggregator.Op aop = aops[0];
         Type aType = childTd.getType(afield);
         Type gType = (gfield == Aggregator.NO_GROUPING) ? null : childTd.getType(gfield);
 
-        if (aType == Type.INT_TYPE) {
-            aggregator = new IntAggregator(gfield, gType, afield, aop);
+        if (gType != null && (aType == Type.INT_TYPE || aType == Type.STRING_TYPE)) {
+            return new SpillingAggregator(gfield, gType, afield, aType, aop, memoryBytes);
+        } else if (aType == Type.INT_TYPE) {
+            return new IntAggregator(gfield, gType, afield, aop);
         } else if (aType == Type.STRING_TYPE) {
-            aggregator = new StringAggregator(gfield, gType, afield, aop);
+            return new StringAggregator(gfield, gType, afield, aop);
         } else {
             throw new DbException("Unsupported aggregate field type");
         }
+    }
 
-        // Merge all tuples
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            aggregator.merge(t);
-        }
+    private static Type[] types(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            types[i] = td.getType(fields[i]);
+        return types;
+    }
 
-        // Build result iterator
-        aggIter = aggregator.iterator();
-        aggIter.open();
+    /**
+     * Aggregate the pages of scan's table in parallel page ranges, and merge
+     * the partial aggregates into aggregator.  Whether or not that succeeds,
+     * every worker is finished and every part's spill files deleted before
+     * this returns.
+     */
+    private void mergeParallel(final SeqScan scan, int pages)
+        throws DbException, TransactionAbortedException {
+        int n = Math.min(parallelism, pages);
+        // tells workers to stop early once the merge has failed
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        List<Aggregator> parts = new ArrayList<Aggregator>();
+        List<Future<Aggregator>> futures = new ArrayList<Future<Aggregator>>();
+        try {
+            for (int w = 0; w < n; w++) {
+                final int start = (int) ((long) pages * w / n);
+                final int end = (int) ((long) pages * (w + 1) / n);
+                final Aggregator part = newAggregator(memoryBytes / n);
+                parts.add(part);
+                futures.add(workers.submit(new Callable<Aggregator>() {
+                    public Aggregator call() throws DbException, TransactionAbortedException {
+                        DbFileIterator it = scan.iterator(start, end);
+                        it.open();
+                        try {
+                            while (!stopped.get() && it.hasNext())
+                                part.merge(it.next());
+                        } finally {
+                            it.close();
+                        }
+                        return part;
+                    }
+                }));
+            }
 
-        // Build TupleDesc with names
-        String aggFieldName = childTd.getFieldName(afield);
-        String aggName = aggName(aop) + "(" + aggFieldName + ")";
-        if (gfield == Aggregator.NO_GROUPING) {
-            td = new TupleDesc(new Type[] { Type.INT_TYPE },
-                               new String[] { aggName });
-        } else {
-            String gname = childTd.getFieldName(gfield);
-            td = new TupleDesc(new Type[] { childTd.getType(gfield), Type.INT_TYPE },
-                               new String[] { gname, aggName });
+            for (Future<Aggregator> f : futures) {
+                Aggregator part = f.get();
+                DbIterator it = part.partials();
+                it.open();
+                while (it.hasNext())
+                    aggregator.mergePartial(it.next());
+                it.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while aggregating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("aggregate worker failed: " + cause);
+        } finally {
+            // a part may only be closed once its worker is done writing to it
+            stopped.set(true);
+            awaitAll(futures);
+            for (Aggregator part : parts) {
+                if (part instanceof SpillingAggregator)
+                    ((SpillingAggregator) part).close();
+            }
         }
     }
 
+    /**
+     * Wait for every future to finish, however it finishes.  An interrupt
+     * while waiting is kept for the caller.
+     */
+    private static void awaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = Thread.interrupted();
+        for (Future<?> f : futures) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
     /**
      * Returns the next tuple. If there is no next tuple, return null.
      * Hint: query plans are not expected to handle huge amounts of data, so
@@ -112,6 +326,21 @@ public class Aggregate extends AbstractDbIterator {
         return null;
     }
 
+    /**
+     * BatchIterator.nextBatch implementation.
+     * Returns the next TupleBatch.MAX_ROWS result tuples, or fewer at the
+     * end, or null if there are no more.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        Tuple t;
+        while (!batch.isFull() && (t = readNext()) != null)
+            batch.add(t);
+        return batch.numRows() == 0 ? null : batch;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         if (aggIter != null) {
             aggIter.rewind();
@@ -120,8 +349,8 @@ public class Aggregate extends AbstractDbIterator {
 
     /**
      * Returns the TupleDesc of this Aggregate.
-     * If there is no grouping, this will have one field - the aggregate result.
-     * If there is grouping, this will have two fields, the group-by field and the aggregate result.
+     * If there is no grouping, this will have one field per aggregate result.
+     * If there is grouping, the group-by fields come first, followed by the aggregate results.
      *
      * The name of an aggregate column should be informative.  For example:
      * "aggName(aop) (child_td.getFieldName(afield))"
@@ -133,16 +362,18 @@ public class Aggregate extends AbstractDbIterator {
     }
 
     private TupleDesc computeTupleDesc(TupleDesc childTd) {
-        String aggFieldName = childTd.getFieldName(afield);
-        String aggNameStr = aggName(aop) + "(" + aggFieldName + ")";
-        if (gfield == Aggregator.NO_GROUPING) {
-            return new TupleDesc(new Type[] { Type.INT_TYPE },
-                                 new String[] { aggNameStr });
-        } else {
-            String gname = childTd.getFieldName(gfield);
-            return new TupleDesc(new Type[] { childTd.getType(gfield), Type.INT_TYPE },
-                                 new String[] { gname, aggNameStr });
+        int n = gfields.length + afields.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = aggName(aops[i]) + "(" + childTd.getFieldName(afields[i]) + ")";
         }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
@@ -151,6 +382,9 @@ public class Aggregate extends AbstractDbIterator {
             aggIter.close();
             aggIter = null;
         }
+        if (aggregator instanceof SpillingAggregator)
+            ((SpillingAggregator) aggregator).close();
+        aggregator = null;
         child.close();
     }
 }
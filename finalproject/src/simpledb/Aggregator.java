@@ -45,4 +45,22 @@ public interface Aggregator {
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * Create a DbIterator over the partial state of each group: the group
+     * value, if grouping, followed by whatever fields this aggregator needs
+     * to combine the group with the same group of another aggregator.  AVG,
+     * for example, is carried as a sum and a count, not as an average.
+     *
+     * @see #mergePartial
+     */
+    public DbIterator partials();
+
+    /**
+     * Combine a group's partial state, a tuple from the partials() of an
+     * aggregator constructed with the same arguments, into this aggregator.
+     *
+     * @param partial a tuple from another aggregator's partials()
+     */
+    public void mergePartial(Tuple partial);
 }
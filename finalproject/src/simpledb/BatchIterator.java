@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * BatchIterator is the interface of operators that can return their
+ * tuples a TupleBatch at a time, paying for a call per batch of up to
+ * TupleBatch.MAX_ROWS tuples rather than per tuple.
+ * <p>
+ * Operators that implement BatchIterator also implement DbIterator.  Such
+ * an operator is opened, rewound and closed once, whichever interface it is
+ * read through, but it must be read through only one of them between an
+ * open or rewind and the next.  BatchingIterator and UnbatchingIterator
+ * adapt one interface to the other, so a plan can mix operators of both.
+ */
+public interface BatchIterator {
+    /**
+     * Opens the iterator.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open()
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Gets the next batch of tuples from the operator.  The batch belongs to
+     * the operator, which may reuse it: it is valid until the next call to
+     * nextBatch, rewind or close.  The caller may narrow its selection, but
+     * not change its rows.
+     *
+     * @return The next batch, with at least one selected row, or null if
+     *   there are no more tuples.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException When rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the tuples in this iterator's batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * BatchingIterator reads a DbIterator as a BatchIterator, copying its
+ * tuples into batches, so that a batch operator can take any operator as
+ * its child.
+ */
+public class BatchingIterator implements BatchIterator {
+
+    private final DbIterator child;
+    private TupleBatch batch;
+
+    /**
+     * @param child the iterator to read tuples from
+     */
+    public BatchingIterator(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it, if it is a BatchIterator, else a BatchingIterator over it.
+     *   Either way, opening, rewinding or closing it opens, rewinds or
+     *   closes the result, so an operator can keep a batch view of a child
+     *   it otherwise manages as a DbIterator.
+     */
+    public static BatchIterator of(DbIterator it) {
+        if (it instanceof BatchIterator)
+            return (BatchIterator) it;
+        return new BatchingIterator(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator implements the relational join for any
+ * JoinPredicate.  Where Join scans the right (inner) child once per left
+ * tuple, this operator reads a block of left tuples into memory and scans
+ * the inner child once per block, testing each inner tuple against every
+ * tuple of the block.  With a block of b outer tuples the inner relation
+ * is read b times less often.
+ */
+public class BlockNestedLoopJoin extends AbstractDbIterator {
+
+    /** Default number of bytes of outer tuples buffered per block. */
+    public static final int DEFAULT_BLOCK_BYTES =
+        Integer.getInteger("simpledb.JoinBlockBytes", 64 * BufferPool.PAGE_SIZE);
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc mergedTd;
+    private final int leftFields;
+    private final int blockTuples;
+
+    // the current block of outer tuples
+    private final ArrayList<Tuple> block;
+    private boolean outerDone;
+    // the inner tuple being matched, and the next block tuple to test it with
+    private Tuple currentRight;
+    private int blockIdx;
+    private int innerScans;
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on, buffering DEFAULT_BLOCK_BYTES of outer tuples.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @param blockBytes the number of bytes of outer tuples to buffer per
+     *   scan of the inner relation; at least one tuple is always buffered
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                               int blockBytes) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mergedTd = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.leftFields = child1.getTupleDesc().numFields();
+        this.blockTuples = Math.max(1, blockBytes / child1.getTupleDesc().getSize());
+        this.block = new ArrayList<Tuple>(Math.min(blockTuples, 4096));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        innerScans = 0;
+        start();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block.clear();
+        currentRight = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /**
+     * Returns the TupleDesc for this operator, combining the TupleDescs of its
+     * two children.
+     *
+     * @return the TupleDesc that combines the two TupleDescs of the children.
+     */
+    public TupleDesc getTupleDesc() {
+        return mergedTd;
+    }
+
+    /** @return the number of outer tuples buffered per block */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    /** @return the number of times the inner child has been scanned since open */
+    public int getInnerScans() {
+        return innerScans;
+    }
+
+    /**
+     * Operator.fetchNext implementation.  Returns the next matching tuple,
+     * the concatenation of the joining left and right tuples, or null if
+     * there are no more matching tuples.
+     *
+     * @see Join#readNext
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (block.isEmpty())
+            return null;
+        while (true) {
+            if (currentRight != null) {
+                while (blockIdx < block.size()) {
+                    Tuple left = block.get(blockIdx++);
+                    if (p.filter(left, currentRight))
+                        return merge(left, currentRight);
+                }
+                currentRight = null;
+            }
+            if (child2.hasNext()) {
+                currentRight = child2.next();
+                blockIdx = 0;
+                continue;
+            }
+            // exhausted right, move to next block
+            if (outerDone || !fillBlock())
+                return null;
+            child2.rewind();
+        }
+    }
+
+    /** Position at the first block of the outer relation. */
+    private void start() throws DbException, TransactionAbortedException {
+        outerDone = false;
+        currentRight = null;
+        fillBlock();
+    }
+
+    /**
+     * Read the next block of outer tuples.
+     *
+     * @return false if the outer relation had no more tuples
+     */
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+        outerDone = !child1.hasNext();
+        if (block.isEmpty())
+            return false;
+        innerScans++;
+        return true;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        return new JoinedTuple(mergedTd, left, right, leftFields);
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.BiFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,15 +14,73 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool which check that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The BufferPool has no global monitor.  Resident pages live in a concurrent
+ * page table, so cache hits never block each other.  A miss reserves a frame
+ * (evicting under a short eviction latch if needed) and reads the page
+ * outside of any lock, so misses on different pages proceed in parallel;
+ * concurrent misses on the same page are coalesced into a single read.
+ * <p>
+ * Scans can ask for pages ahead of the one they are reading with
+ * {@link #prefetch}.  A prefetch is read on a background I/O thread through
+ * the same in-flight table, so a getPage that arrives while the read is
+ * still running simply waits for it.
  */
 public class BufferPool {
     /** Bytes per page, excluding header. */
     public static final int PAGE_SIZE = 4096;
     public static final int DEFAULT_PAGES = 100;
 
+    /**
+     * Eviction policy used when none is given explicitly.  It can be changed
+     * at startup with a system property, e.g. -Dsimpledb.EvictionPolicy=2q
+     *
+     * @see #newEvictionPolicy
+     */
+    public static final String DEFAULT_EVICTION_POLICY =
+        System.getProperty("simpledb.EvictionPolicy", "clock");
+
+    /**
+     * Number of pages a sequential scan reads ahead, unless the pool is too
+     * small for that many (see {@link #getPrefetchWindow}).  It can be
+     * changed at startup with a system property, e.g.
+     * -Dsimpledb.PrefetchPages=32; 0 turns read-ahead off.
+     */
+    public static final int DEFAULT_PREFETCH_PAGES =
+        Integer.getInteger("simpledb.PrefetchPages", 8);
+
+    // one daemon thread shared by all buffer pools, so read-ahead for a
+    // scan is issued to the disk in page order
+    private static final ExecutorService prefetcher =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
     // Instance variables for buffer pool implementation
     private int numPages;
-    private Map<PageId, Page> pageMap;
+    private ConcurrentHashMap<PageId, Page> pageMap;
+    private EvictionPolicy policy;
+    private volatile int prefetchWindow;
+
+    // reads currently in flight, so that concurrent misses on a page wait
+    // for the same read instead of issuing their own
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading =
+        new ConcurrentHashMap<PageId, FutureTask<Page>>();
+    // resident pages plus frames reserved by in-flight reads
+    private final AtomicInteger usedFrames = new AtomicInteger(0);
+    private final Object evictionLatch = new Object();
+
+    private final LockManager lockManager = new LockManager();
+
+    // counters used to compare eviction policies on a workload
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
 
     /**
      * Constructor.
@@ -27,9 +88,102 @@ public class BufferPool {
      * @param numPages number of pages in this buffer pool
      */
     public BufferPool(int numPages) {
+        this(numPages, newEvictionPolicy(DEFAULT_EVICTION_POLICY, numPages));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param numPages number of pages in this buffer pool
+     * @param policy the policy that picks pages to evict when the pool is full
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         // some code goes here
         this.numPages = numPages;
-        this.pageMap = new HashMap<>();
+        this.pageMap = new ConcurrentHashMap<>();
+        this.policy = policy;
+        // read-ahead must not crowd out the pages that scans are using
+        this.prefetchWindow = Math.min(DEFAULT_PREFETCH_PAGES, numPages / 4);
+    }
+
+    /**
+     * Create an eviction policy by name.
+     *
+     * @param name one of "lru", "clock", "lru-k" (LRU-2), "lru-N" for some
+     *   integer N, or "2q"; case insensitive
+     * @param numPages the size of the buffer pool the policy will manage
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static EvictionPolicy newEvictionPolicy(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LruEvictionPolicy();
+        if (n.equals("clock"))
+            return new ClockEvictionPolicy();
+        if (n.equals("2q"))
+            return new TwoQueueEvictionPolicy(numPages);
+        if (n.equals("lru-k"))
+            return new LruKEvictionPolicy(numPages);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKEvictionPolicy(Integer.parseInt(n.substring(4)), numPages);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Unknown eviction policy " + name);
+    }
+
+    /** @return the eviction policy used by this buffer pool */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** @return the lock manager, e.g. to read its wait and abort metrics */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /** @return the number of getPage calls served from the buffer pool */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of pages read ahead of use by {@link #prefetch} */
+    public long getPrefetchCount() {
+        return prefetches.sum();
+    }
+
+    /** @return the number of pages evicted to make room for other pages */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /** Reset the hit, miss and eviction counters to zero. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        prefetches.reset();
+    }
+
+    /**
+     * @return how many pages ahead of its current page a sequential scan
+     *   should prefetch; 0 if read-ahead is off.  Defaults to
+     *   DEFAULT_PREFETCH_PAGES, capped at a quarter of the pool.
+     */
+    public int getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /** Set the read-ahead window of sequential scans; 0 turns it off. */
+    public void setPrefetchWindow(int pages) {
+        prefetchWindow = Math.max(0, pages);
     }
 
     /**
@@ -46,34 +200,159 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock
      */
-    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        
+        lockManager.acquire(tid, pid, perm);
+
         // Check if page is already in buffer pool
         Page page = pageMap.get(pid);
         if (page != null) {
+            hits.increment();
+            policy.pageAccessed(pid);
             return page;
         }
         
         // Page not in buffer pool, need to read from disk
-        // First check if buffer pool is full
-        if (pageMap.size() >= numPages) {
-            throw new DbException("Buffer pool is full - no eviction policy implemented");
+        return loadPage(pid);
+    }
+
+    /**
+     * Read a page that was not resident, or wait for the read another thread
+     * already has in flight for it.
+     */
+    private Page loadPage(final PageId pid) throws DbException {
+        while (true) {
+            FutureTask<Page> load = newLoad(pid);
+            FutureTask<Page> inflight = loading.putIfAbsent(pid, load);
+            if (inflight == null) {
+                // we own the read -- unless the page was installed between our
+                // lookup and our claim, which is why installs happen before the
+                // loading entry is removed
+                Page page = pageMap.get(pid);
+                if (page != null) {
+                    loading.remove(pid, load);
+                    hits.increment();
+                    policy.pageAccessed(pid);
+                    return page;
+                }
+                misses.increment();
+                load.run();
+                return await(pid, load);
+            }
+
+            // another thread, or the read-ahead, is already reading the page
+            try {
+                Page page = inflight.get();
+                hits.increment();
+                return page;
+            } catch (ExecutionException e) {
+                // that read failed; try again, reading the page ourselves
+                // if no one else has started to
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("Interrupted while waiting for page " + pid);
+            }
+        }
+    }
+
+    /**
+     * Start reading pid into the pool in the background, if it is neither
+     * resident nor already being read.  No lock is taken: the page is only
+     * cached, and whoever uses it still locks it through getPage.
+     *
+     * @return true if a read was started
+     */
+    public boolean prefetch(PageId pid) {
+        if (pageMap.containsKey(pid) || loading.containsKey(pid))
+            return false;
+        FutureTask<Page> load = newLoad(pid);
+        if (loading.putIfAbsent(pid, load) != null)
+            return false;
+        if (pageMap.containsKey(pid)) {
+            loading.remove(pid, load);
+            return false;
+        }
+        prefetches.increment();
+        prefetcher.execute(load);
+        return true;
+    }
+
+    private FutureTask<Page> newLoad(final PageId pid) {
+        return new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return readPage(pid);
+            }
+        });
+    }
+
+    /** Wait for a read this thread owns, rethrowing its failure. */
+    private Page await(PageId pid, FutureTask<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("Error reading page " + pid + ": " + cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("Interrupted while waiting for page " + pid);
+        }
+    }
+
+    /**
+     * Reserve a frame, read the page from its DbFile and install it.  Runs
+     * in the one thread that claimed the read of pid.
+     */
+    private Page readPage(PageId pid) throws DbException {
+        try {
+            reserveFrame();
+            boolean installed = false;
+            try {
+                // Get the DbFile for this page using the catalog
+                DbFile dbFile = Database.getCatalog().getDbFile(pid.tableid());
+
+                // Read the page from disk
+                final Page page = dbFile.readPage(pid);
+
+                // Add to buffer pool, telling the policy under the same
+                // entry lock that removePage takes
+                pageMap.compute(pid, new BiFunction<PageId, Page, Page>() {
+                    public Page apply(PageId id, Page old) {
+                        policy.pageAdmitted(id);
+                        return page;
+                    }
+                });
+                installed = true;
+                return page;
+            } finally {
+                if (!installed)
+                    usedFrames.decrementAndGet();
+            }
+        } finally {
+            loading.remove(pid);
+        }
+    }
+
+    /**
+     * Claim one of the numPages frames, evicting pages until one is free.
+     */
+    private void reserveFrame() throws DbException {
+        while (true) {
+            int used = usedFrames.get();
+            if (used < numPages) {
+                if (usedFrames.compareAndSet(used, used + 1))
+                    return;
+            } else {
+                evictPage();
+            }
         }
-        
-        // Get the DbFile for this page using the catalog
-        int tableId = pid.tableid();
-        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
-        
-        // Read the page from disk
-        page = dbFile.readPage(pid);
-        
-        // Add to buffer pool
-        pageMap.put(pid, page);
-        
-        return page;
     }
 
     /**
@@ -85,8 +364,8 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
-    public synchronized void releasePage(TransactionId tid, PageId pid) {
-        // not necessary for this project
+    public void releasePage(TransactionId tid, PageId pid) {
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -94,14 +373,13 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      */
-    public synchronized void transactionComplete(TransactionId tid) throws IOException {
-        // not necessary for this project
+    public void transactionComplete(TransactionId tid) throws IOException {
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
-    public  synchronized boolean holdsLock(TransactionId tid, PageId p) {
-        // not necessary for this project
-        return false;
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -111,9 +389,22 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
-    public  synchronized void transactionComplete(TransactionId tid, boolean commit)
+    public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // not necessary for this project
+        try {
+            if (commit) {
+                flushPages(tid);
+            } else {
+                // drop the aborted changes; the next reader rereads the page
+                for (PageId pid : lockManager.lockedPages(tid)) {
+                    Page p = pageMap.get(pid);
+                    if (p != null && p.isDirty() != null && p.isDirty().equals(tid))
+                        discardPage(pid);
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -125,7 +416,7 @@ public class BufferPool {
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
      */
-    public synchronized void insertTuple(TransactionId tid, int tableId, Tuple t)
+    public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // not necessary for this project
     }
@@ -138,7 +429,7 @@ public class BufferPool {
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
      */
-    public synchronized void deleteTuple(TransactionId tid, Tuple t)
+    public void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
         // not necessary for this project
     }
@@ -148,9 +439,9 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        // not necessary for this project
-
+    public void flushAllPages() throws IOException {
+        for (PageId pid : pageMap.keySet())
+            flushPage(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -158,29 +449,83 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
-        // not necessary for this project
+    public void discardPage(PageId pid) {
+        if (removePage(pid))
+            usedFrames.decrementAndGet();
+    }
+
+    /**
+     * Remove pid from the page table and tell the policy, as one step, so a
+     * concurrent readPage of pid cannot be admitted in between and then
+     * forgotten by the policy.
+     *
+     * @return true if the page was resident
+     */
+    private boolean removePage(PageId pid) {
+        final boolean[] removed = new boolean[1];
+        pageMap.computeIfPresent(pid, new BiFunction<PageId, Page, Page>() {
+            public Page apply(PageId id, Page p) {
+                policy.pageRemoved(id);
+                removed[0] = true;
+                return null;
+            }
+        });
+        return removed[0];
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private  synchronized void flushPage(PageId pid) throws IOException {
-        // not necessary for this project
+    private void flushPage(PageId pid) throws IOException {
+        Page p = pageMap.get(pid);
+        if (p == null || p.isDirty() == null)
+            return;
+        Database.getCatalog().getDbFile(pid.tableid()).writePage(p);
+        p.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // not necessary for this project
+    public void flushPages(TransactionId tid) throws IOException {
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            Page p = pageMap.get(pid);
+            if (p != null && p.isDirty() != null && p.isDirty().equals(tid))
+                flushPage(pid);
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
+     * The victim is chosen by the eviction policy.  Dirty pages are never
+     * evicted (NO STEAL), so this fails if every resident page is dirty.
+     * Evictions are serialized on a latch that hits never take.
+     *
+     * @throws DbException if no page can be evicted
      */
-    private  synchronized void evictPage() throws DbException {
-        // not necessary for this project
+    private void evictPage() throws DbException {
+        synchronized (evictionLatch) {
+            PageId victim = policy.chooseVictim(new EvictionPolicy.Evictable() {
+                public boolean canEvict(PageId pid) {
+                    Page p = pageMap.get(pid);
+                    return p != null && p.isDirty() == null;
+                }
+            });
+            if (victim == null) {
+                if (pageMap.size() < usedFrames.get()) {
+                    // frames are held by reads still in flight; once they
+                    // are installed there will be something to evict
+                    Thread.yield();
+                    return;
+                }
+                throw new DbException("Buffer pool is full and every page is dirty");
+            }
+            // a victim discarded concurrently has already left the policy
+            if (removePage(victim)) {
+                usedFrames.decrementAndGet();
+                evictions.increment();
+            }
+        }
     }
 
 }
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.*;
 import java.util.*;
 
 /**
@@ -126,9 +127,33 @@ public class Catalog {
         return tableInfo.file;
     }
 
-    /** Delete all tables from the catalog */
+    /**
+     * Choose whether the specified table is read through a memory map.
+     * @param tableid The id of the table, as specified by the DbFile.id()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public void setMemoryMapped(int tableid, boolean mapped) throws NoSuchElementException {
+        DbFile file = getDbFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("Table " + tableid + " cannot be memory mapped");
+        }
+        ((HeapFile) file).setMemoryMapped(mapped);
+    }
+
+    /** Delete all tables from the catalog, closing any open table files */
     public void clear() {
         // some code goes here
+        for (TableInfo info : tableMap.values()) {
+            if (info.file instanceof Closeable) {
+                try {
+                    ((Closeable) info.file).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         tableMap.clear();
         nameToIdMap.clear();
     }
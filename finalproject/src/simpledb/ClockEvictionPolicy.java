@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement.  Resident pages sit in a circular list
+ * of frames, each with a reference bit that is set on every access.  The
+ * clock hand sweeps the frames, clearing reference bits, and evicts the
+ * first evictable page whose bit is already clear.
+ * <p>
+ * A hit only sets the reference bit of the page's frame, which needs no
+ * lock; this makes CLOCK the cheapest policy for hit-heavy concurrent
+ * workloads.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final ArrayList<Frame> ring = new ArrayList<Frame>();
+    private final Map<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    public synchronized void pageAdmitted(PageId pid) {
+        if (frames.containsKey(pid))
+            return;
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = ring.size();
+            ring.add(null);
+        } else {
+            slot = freeSlots.pop();
+        }
+        Frame f = new Frame(pid, slot);
+        // a newly read page gets one trip around the clock before it can go
+        f.referenced = true;
+        ring.set(slot, f);
+        frames.put(pid, f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f != null) {
+            ring.set(f.slot, null);
+            freeSlots.push(f.slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int n = ring.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            Frame f = ring.get(hand);
+            hand = (hand + 1) % n;
+            if (f == null)
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            if (evictable.canEvict(f.pid))
+                return f.pid;
+        }
+        return null;
+    }
+
+    public String name() {
+        return "clock";
+    }
+}
@@ -35,6 +35,15 @@ public class Database {
         return _bufferpool;
     }
 
+    /** Create a new instance of the buffer pool that evicts pages using
+        the named policy, and return it.
+        @see BufferPool#newEvictionPolicy
+    */
+    public static BufferPool resetBufferPool(int pages, String evictionPolicy) {
+        _bufferpool = new BufferPool(pages, BufferPool.newEvictionPolicy(evictionPolicy, pages));
+        return _bufferpool;
+    }
+
     //Dummy function so recovery code compiles;  not needed in this project
     public static LogFile resetLogFile() throws IOException { return null; }
 
@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should give up
+ * when it needs a frame for a page that is not cached.
+ * <p>
+ * The BufferPool reports every page it admits, every cache hit and every
+ * page it drops; the policy only tracks PageIds and never touches the pages
+ * themselves.  Implementations are selected by name through
+ * {@link BufferPool#newEvictionPolicy}.
+ * <p>
+ * The BufferPool calls a policy from many threads at once without holding
+ * any lock of its own, so implementations must be thread safe.
+ * {@link #pageAccessed} is on the cache-hit path and should be as cheap as
+ * possible; the other methods are only called on misses and evictions.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Callback used by {@link #chooseVictim} to ask the BufferPool whether a
+     * particular resident page may be evicted right now (dirty pages, for
+     * example, may not be under NO STEAL).
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when the specified page has just been read into the buffer pool.
+     */
+    public void pageAdmitted(PageId pid);
+
+    /**
+     * Called every time a page that is already resident is requested.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when the specified page leaves the buffer pool, either because it
+     * was evicted or because it was discarded.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict.  Pages for which
+     * evictable.canEvict() returns false must be skipped.  The policy should
+     * not forget the page here; the BufferPool calls {@link #pageRemoved}
+     * once the page is actually gone.
+     *
+     * @param evictable filter telling which pages may be evicted
+     * @return the page to evict, or null if no resident page can be evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+
+    /**
+     * @return a short name for this policy, as accepted by
+     *   {@link BufferPool#newEvictionPolicy}
+     */
+    public String name();
+}
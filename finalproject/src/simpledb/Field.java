@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,15 @@ public interface Field {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to the specified buffer, in
+     * the same format as {@link #serialize(DataOutputStream)}, starting at
+     * its current position.
+     * @param buf The buffer to write to.
+     * @throws java.nio.BufferOverflowException if buf has too little room
+     */
+    void serialize(ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -4,10 +4,11 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends AbstractDbIterator {
+public class Filter extends AbstractDbIterator implements Ordered, BatchIterator {
 
     private final Predicate p;
     private final DbIterator child;
+    private final BatchIterator batchChild;
 
     /**
      * Constructor accepts a predicate to apply and a child
@@ -19,6 +20,7 @@ public class Filter extends AbstractDbIterator {
     public Filter(Predicate p, DbIterator child) {
         this.p = p;
         this.child = child;
+        this.batchChild = BatchingIterator.of(child);
     }
 
     public void open()
@@ -43,6 +45,13 @@ public class Filter extends AbstractDbIterator {
         return child.getTupleDesc();
     }
 
+    /**
+     * A filter returns its child's tuples in the child's order.
+     */
+    public boolean isSortedOn(int field, boolean asc) {
+        return child instanceof Ordered && ((Ordered) child).isSortedOn(field, asc);
+    }
+
     /**
      * AbstractDbIterator.readNext implementation.
      * Iterates over tuples from the child operator, applying the predicate
@@ -62,4 +71,21 @@ public class Filter extends AbstractDbIterator {
         }
         return null;
     }
+
+    /**
+     * BatchIterator.nextBatch implementation.
+     * Narrows the selection of each of the child's batches to the tuples
+     * that pass the predicate, skipping batches none of them pass.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = batchChild.nextBatch()) != null) {
+            p.filter(batch);
+            if (batch.numRows() > 0)
+                return batch;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,113 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The HashEquiJoin operator implements an equality join by hashing.  On
+ * open it reads the right (inner) child once into a hash table keyed on
+ * the predicate's right field; it then streams the left (outer) child and
+ * probes the table with each tuple's left field.  This reads each input
+ * once instead of rescanning the inner relation for every outer tuple.
+ * <p>
+ * The whole inner relation is kept in memory, so the smaller input should
+ * be the right child.
+ */
+public class HashEquiJoin extends AbstractDbIterator {
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc mergedTd;
+    private final int leftFields;
+
+    // the inner relation, by join key; built on open
+    private HashMap<Field, ArrayList<Tuple>> table;
+    private Tuple currentLeft;
+    // the inner tuples matching currentLeft not yet returned
+    private Iterator<Tuple> matches;
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on
+     *
+     * @param p The predicate to use to join the children; its operator must
+     *   be Predicate.Op.EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join, which
+     *   is hashed
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashEquiJoin requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mergedTd = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.leftFields = child1.getTupleDesc().numFields();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            Field key = t.getField(p.getField2());
+            ArrayList<Tuple> bucket = table.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                table.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        currentLeft = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        table = null;
+        currentLeft = null;
+        matches = null;
+    }
+
+    /**
+     * Restart the join from the first outer tuple.  The hash table is kept,
+     * so the inner relation is not read again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        currentLeft = null;
+        matches = null;
+    }
+
+    /**
+     * Returns the TupleDesc for this operator, combining the TupleDescs of its
+     * two children.
+     *
+     * @return the TupleDesc that combines the two TupleDescs of the children.
+     */
+    public TupleDesc getTupleDesc() {
+        return mergedTd;
+    }
+
+    /**
+     * Operator.fetchNext implementation.  Returns the next matching tuple,
+     * the concatenation of the joining left and right tuples, or null if
+     * there are no more matching tuples.
+     *
+     * @see Join#readNext
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (matches == null || !matches.hasNext()) {
+            if (!child1.hasNext())
+                return null;
+            currentLeft = child1.next();
+            ArrayList<Tuple> bucket = table.get(currentLeft.getField(p.getField1()));
+            matches = bucket == null ? null : bucket.iterator();
+        }
+        return new JoinedTuple(mergedTd, currentLeft, matches.next(), leftFields);
+    }
+}
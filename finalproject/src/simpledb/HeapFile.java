@@ -1,7 +1,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection
@@ -9,14 +14,43 @@ import java.util.*;
  * which is a fixed size, and the file is simply a collection of those
  * pages. HeapFile works closely with HeapPage.  The format of HeapPages
  * is described in the HeapPage constructor.
+ * <p>
+ * A HeapFile keeps one FileChannel open for its whole life and reads and
+ * writes pages with positional I/O, so concurrent page reads do not share
+ * a file pointer.  The channel is opened on first use and released by
+ * {@link #close}, which the Catalog calls when it is cleared.
+ * <p>
+ * A read-mostly table can instead be memory mapped (see
+ * {@link #setMemoryMapped}); pages are then decoded straight out of the
+ * mapped region.  The file is mapped in chunks of whole pages, each at
+ * most 2GB, so files of any size can be mapped.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
     
     // Instance variable to store the file
     private File file;
+    private final int tableid;
+    private volatile FileChannel channel;
+
+    private volatile boolean memoryMapped = false;
+    // mapped regions of the file, by chunk number
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> chunks =
+        new ConcurrentHashMap<Integer, MappedByteBuffer>();
+    // pages per mapped chunk; 0 means as many as fit in 2GB
+    private int chunkPages = 0;
+
+    // computed on first use, since the file may be created before its
+    // table is added to the catalog
+    private volatile PageLayout layout;
+    // a scan starts reading ahead once it has read this many pages in order
+    static final int SEQUENTIAL_RUN = 2;
+
+    // number of pages in the file, or -1 until first asked; kept up to date
+    // by writePage so scans never have to stat the file
+    private volatile int numPages = -1;
     
     /**
      * Constructor.
@@ -27,6 +61,7 @@ public class HeapFile implements DbFile {
     public HeapFile(File f) {
         // some code goes here
         this.file = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
     }
 
     /**
@@ -48,7 +83,7 @@ public class HeapFile implements DbFile {
      */
     public int id() {
         // some code goes here
-        return file.getAbsoluteFile().hashCode();
+        return tableid;
     }
 
     /**
@@ -57,12 +92,8 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) throws NoSuchElementException {
         // some code goes here
         try {
-            // Get the tuple descriptor to calculate the actual page layout
-            TupleDesc td = Database.getCatalog().getTupleDesc(id());
-            int tupleSize = td.getSize();
-            int tuplesPerPage = BufferPool.PAGE_SIZE / tupleSize;
-            int headerBytes = ((tuplesPerPage / 32) + 1) * 4;
-            int bytesPerPageOnDisk = headerBytes + BufferPool.PAGE_SIZE;
+            PageLayout layout = getLayout();
+            int bytesPerPageOnDisk = layout.getBytesPerPage();
             
             // Calculate the byte offset for this page
             int pageNumber = pid.pageno();
@@ -73,34 +104,186 @@ public class HeapFile implements DbFile {
                 throw new NoSuchElementException("Page " + pageNumber + " does not exist in this file");
             }
             
-            // Read the complete page data from file (header + page data)
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(offset);
-            
-            byte[] pageData = new byte[bytesPerPageOnDisk];
-            int bytesRead = raf.read(pageData);
-            raf.close();
-            
-            // If we didn't read a full page, pad with zeros
-            if (bytesRead < bytesPerPageOnDisk) {
-                for (int i = bytesRead; i < bytesPerPageOnDisk; i++) {
-                    pageData[i] = 0;
-                }
+            if (memoryMapped) {
+                ByteBuffer mapped = mappedPage(pageNumber, bytesPerPageOnDisk);
+                if (mapped != null)
+                    return newPage((HeapPageId) pid, mapped, layout);
             }
+
+            // Read the complete page data from file (header + page data);
+            // a short last page is left padded with zeros
+            byte[] pageData = new byte[bytesPerPageOnDisk];
+            readFully(ByteBuffer.wrap(pageData), offset);
             
             // Create and return a HeapPage from the data
-            return new HeapPage((HeapPageId) pid, pageData);
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(pageData), layout);
             
         } catch (IOException e) {
             throw new NoSuchElementException("Error reading page: " + e.getMessage());
         }
     }
 
+    /**
+     * Decode a page read from this file.  Subclasses that lay pages out
+     * differently return their own kind of HeapPage.
+     */
+    HeapPage newPage(HeapPageId pid, ByteBuffer data, PageLayout layout) throws IOException {
+        return new HeapPage(pid, data, layout);
+    }
+
     /**
      * Writes the given page to the appropriate location in the file.
      */
     public void writePage(Page page) throws IOException {
-        // not necessary for this project
+        byte[] data = page.getPageData();
+        long offset = (long) page.id().pageno() * data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (true) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+                extendTo(page.id().pageno() + 1);
+                return;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted())
+                    throw e;
+                // closed underneath us by another thread; reopen and retry
+            }
+        }
+    }
+
+    /**
+     * Switch this file between memory-mapped reads and ordinary positional
+     * reads.  Pages already in the BufferPool are unaffected.
+     */
+    public void setMemoryMapped(boolean mapped) {
+        memoryMapped = mapped;
+        if (!mapped)
+            chunks.clear();
+    }
+
+    /** @return true if pages of this file are read through a memory map */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /** Set the number of pages per mapped chunk; used by tests. */
+    void setChunkPages(int pages) {
+        chunkPages = pages;
+        chunks.clear();
+    }
+
+    /**
+     * Release the file channel and any mapped regions.  The HeapFile stays
+     * usable; the channel is reopened if another page is read or written.
+     */
+    public void close() throws IOException {
+        FileChannel ch;
+        synchronized (this) {
+            ch = channel;
+            channel = null;
+            chunks.clear();
+            // forget the cached size, in case the file changes while closed
+            numPages = -1;
+        }
+        if (ch != null)
+            ch.close();
+    }
+
+    /**
+     * @return the page layout of this file's table
+     */
+    PageLayout getLayout() {
+        PageLayout l = layout;
+        if (l == null) {
+            l = new PageLayout(Database.getCatalog().getTupleDesc(id()));
+            layout = l;
+        }
+        return l;
+    }
+
+    /** Raise the cached page count to at least pages. */
+    private synchronized void extendTo(int pages) {
+        if (numPages >= 0 && numPages < pages)
+            numPages = pages;
+    }
+
+    /**
+     * @return the open channel for this file, opening it if necessary
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                try {
+                    ch = FileChannel.open(file.toPath(),
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (java.nio.file.AccessDeniedException e) {
+                    ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    /**
+     * @return a buffer positioned over page pageno in the mapped file, or
+     *   null if the page is not wholly within the file (a short last page),
+     *   in which case the caller falls back to a copying read.
+     */
+    private ByteBuffer mappedPage(int pageno, int pageBytes) throws IOException {
+        int perChunk = chunkPages > 0 ? chunkPages : Integer.MAX_VALUE / pageBytes;
+        int chunkNo = pageno / perChunk;
+        int pos = (pageno % perChunk) * pageBytes;
+        MappedByteBuffer chunk = chunks.get(chunkNo);
+        if (chunk == null || chunk.capacity() < pos + pageBytes) {
+            // unmapped, or mapped before the file grew past this page
+            long start = (long) chunkNo * perChunk * pageBytes;
+            try {
+                FileChannel ch = channel();
+                long size = Math.min((long) perChunk * pageBytes, ch.size() - start);
+                if (size < pos + pageBytes)
+                    return null;
+                chunk = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted())
+                    throw e;
+                return null;
+            }
+            chunks.put(chunkNo, chunk);
+        }
+        ByteBuffer page = chunk.duplicate();
+        page.position(pos);
+        page.limit(pos + pageBytes);
+        return page.slice();
+    }
+
+    /**
+     * Fill buf from the file starting at offset, stopping early at end of
+     * file.  A channel closed by a concurrent interrupt in another thread
+     * (FileChannel closes itself when a thread blocked in it is
+     * interrupted) is reopened and the read retried.
+     */
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (true) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position() - start) < 0)
+                        break;
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
     }
 
     /**
@@ -108,20 +291,19 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        // Calculate the number of pages based on file size
-        long fileSize = file.length();
-        if (fileSize == 0) {
-            return 0;
+        int n = numPages;
+        if (n >= 0)
+            return n;
+        synchronized (this) {
+            if (numPages < 0) {
+                // Calculate the number of pages based on file size; a
+                // partial last page still counts
+                long fileSize = file.length();
+                int bytesPerPageOnDisk = getLayout().getBytesPerPage();
+                numPages = (int) ((fileSize + bytesPerPageOnDisk - 1) / bytesPerPageOnDisk);
+            }
+            return numPages;
         }
-        
-        // Get the tuple descriptor to calculate bytes per page on disk
-        TupleDesc td = Database.getCatalog().getTupleDesc(id());
-        int tupleSize = td.getSize();
-        int tuplesPerPage = BufferPool.PAGE_SIZE / tupleSize;
-        int headerBytes = ((tuplesPerPage / 32) + 1) * 4;
-        int bytesPerPageOnDisk = headerBytes + BufferPool.PAGE_SIZE;
-        
-        return (int) Math.ceil((double) fileSize / bytesPerPageOnDisk);
     }
 
     /**
@@ -153,17 +335,71 @@ public class HeapFile implements DbFile {
      * to iterate through pages.
      */
     public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
+        return iterator(tid, null);
+    }
+
+    /**
+     * An iterator over the tuples of this file that decodes only the given
+     * fields.  Field i of each returned tuple is field fields[i] of the
+     * table, as described by {@link #getTupleDesc(int[])}.
+     *
+     * @param fields the fields to return, or null for whole tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return iterator(tid, fields, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * An iterator over the tuples on pages startPage (inclusive) to endPage
+     * (exclusive) of this file, so that several threads can each scan part
+     * of it.
+     *
+     * @param fields the fields to return, or null for whole tuples
+     * @see #iterator(TransactionId, int[])
+     */
+    public DbFileIterator iterator(final TransactionId tid, final int[] fields,
+                                   final int startPage, final int endPage) {
+        final TupleDesc projected = fields == null ? null : getTupleDesc(fields);
         return new DbFileIterator() {
-            private int currentPageNo = 0;
+            private int currentPageNo = startPage;
             private Iterator<Tuple> currentPageIterator = null;
             private boolean isOpen = false;
+            // read-ahead state: the last page fetched, how many pages in a
+            // row were fetched in order, and the highest page prefetched
+            private int lastPageNo = -1;
+            private int runLength = 0;
+            private int prefetchedTo = -1;
             
+            private int endPage() {
+                return Math.min(endPage, numPages());
+            }
+
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 isOpen = true;
-                currentPageNo = 0;
+                currentPageNo = startPage;
                 currentPageIterator = null;
+                lastPageNo = -1;
+                runLength = 0;
+                prefetchedTo = -1;
+            }
+
+            /**
+             * Note that pageNo has been fetched and, once the scan is
+             * known to be sequential, keep the read-ahead window of pages
+             * after it in flight.
+             */
+            private void readAhead(int pageNo) {
+                runLength = (pageNo == lastPageNo + 1) ? runLength + 1 : 1;
+                lastPageNo = pageNo;
+                BufferPool bp = Database.getBufferPool();
+                int window = bp.getPrefetchWindow();
+                if (window <= 0 || runLength < SEQUENTIAL_RUN)
+                    return;
+                int last = Math.min(pageNo + window, endPage() - 1);
+                for (int p = Math.max(prefetchedTo, pageNo) + 1; p <= last; p++)
+                    bp.prefetch(new HeapPageId(id(), p));
+                prefetchedTo = Math.max(prefetchedTo, last);
             }
             
             @Override
@@ -178,17 +414,21 @@ public class HeapFile implements DbFile {
                 }
                 
                 // Otherwise, try to find the next page with tuples
-                while (currentPageNo < numPages()) {
+                while (currentPageNo < endPage()) {
                     try {
                         HeapPageId pageId = new HeapPageId(id(), currentPageNo);
                         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-                        currentPageIterator = page.iterator();
+                        currentPageIterator = fields == null ? page.iterator()
+                            : page.iterator(fields, projected);
+                        readAhead(currentPageNo);
                         
                         if (currentPageIterator.hasNext()) {
                             return true;
                         }
                         
                         currentPageNo++;
+                    } catch (TransactionAbortedException e) {
+                        throw e;
                     } catch (Exception e) {
                         throw new DbException("Error accessing page " + currentPageNo + ": " + e.getMessage());
                     }
@@ -223,24 +463,37 @@ public class HeapFile implements DbFile {
             @Override
             public void close() {
                 isOpen = false;
-                currentPageNo = 0;
+                currentPageNo = startPage;
                 currentPageIterator = null;
+                lastPageNo = -1;
+                runLength = 0;
+                prefetchedTo = -1;
             }
         };
     }
 
+    /**
+     * @return the schema of this file's tuples projected onto fields, keeping
+     *   their names
+     */
+    public TupleDesc getTupleDesc(int[] fields) {
+        TupleDesc td = getLayout().getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * @return the number of bytes on a page, including the number of bytes
      * in the header.
      */
     public int bytesPerPage() {
         // some code goes here
-        // Calculate total bytes per page on disk (header + page data)
-        TupleDesc td = Database.getCatalog().getTupleDesc(id());
-        int tupleSize = td.getSize();
-        int tuplesPerPage = BufferPool.PAGE_SIZE / tupleSize;
-        int headerBytes = ((tuplesPerPage / 32) + 1) * 4;
-        return headerBytes + BufferPool.PAGE_SIZE;
+        return getLayout().getBytesPerPage();
     }
 }
 
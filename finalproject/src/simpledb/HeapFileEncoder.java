@@ -210,4 +210,76 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file with pages in PAX (column) layout.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   * @see #convert(ArrayList, File, int, int)
+   */
+  public static void convertPax(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      File rowFile = File.createTempFile("tempTable", ".dat");
+      rowFile.deleteOnExit();
+      convert(tuples, rowFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      rowsToPax(rowFile, outFile, npagebytes, ts);
+      rowFile.delete();
+  }
+
+  /** Convert the specified input text file of integers into a binary page
+   * file with pages in PAX (column) layout.
+   *
+   * @see #convert(File, File, int, int)
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                                int numFields) throws IOException {
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      convertPax(inFile, outFile, npagebytes, numFields, ts);
+  }
+
+  /** Convert the specified input text file into a binary page file with
+   * pages in PAX (column) layout.  The input format is as for
+   * {@link #convert(File, File, int, int, Type[])}.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                                int numFields, Type[] typeAr) throws IOException {
+      File rowFile = File.createTempFile("tempTable", ".dat");
+      rowFile.deleteOnExit();
+      convert(inFile, rowFile, npagebytes, numFields, typeAr);
+      rowsToPax(rowFile, outFile, npagebytes, typeAr);
+      rowFile.delete();
+  }
+
+  /** Rewrite each page of a file in row layout in PAX layout. */
+  private static void rowsToPax(File rowFile, File outFile, int npagebytes, Type[] typeAr)
+      throws IOException {
+      int nrecbytes = 0;
+      for (Type t : typeAr)
+          nrecbytes += t.getLen();
+      int nheaderbytes = (((npagebytes / nrecbytes) / 32) + 1) * 4;
+      byte[] page = new byte[nheaderbytes + npagebytes];
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      try {
+          long npages = rowFile.length() / page.length;
+          for (long p = 0; p < npages; p++) {
+              is.readFully(page);
+              os.write(PaxPage.fromRowPage(page, npagebytes, typeAr));
+          }
+      } finally {
+          is.close();
+          os.close();
+      }
+  }
 }
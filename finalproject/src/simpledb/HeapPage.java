@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -17,8 +19,14 @@ public class HeapPage implements Page {
 	
     HeapPageId pid;
     TupleDesc td;
+    PageLayout layout;
     int header[];
-    Tuple tuples[];
+    // the on-disk image of the page, which tuples are decoded from on
+    // demand; never modified
+    ByteBuffer data;
+    // tuples decoded so far, by slot; pages are shared by concurrent scans,
+    // so a tuple is published with compareAndSet
+    AtomicReferenceArray<Tuple> tuples;
     int numSlots;
 
     /**
@@ -32,31 +40,56 @@ public class HeapPage implements Page {
      * <p>
      * (no. tuple slots / 32) + 1
      * <p>
+     * Only the header is decoded here.  The page keeps the bytes, and a
+     * tuple's fields are decoded the first time they are read.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, new PageLayout(Database.getCatalog().getTupleDesc(id.tableid())));
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes, using a layout the caller has
+     * already computed for the page's table.
+     */
+    HeapPage(HeapPageId id, byte[] data, PageLayout layout) throws IOException {
+        this(id, ByteBuffer.wrap(data), layout);
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding its on-disk image,
+     * such as a slice of a memory-mapped HeapFile, without copying it into
+     * a byte array first.  The page reads the buffer from its current
+     * position, and keeps it to decode tuples from.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, new PageLayout(Database.getCatalog().getTupleDesc(id.tableid())));
+    }
+
+    /**
+     * Create a HeapPage from a buffer, using a layout the caller has already
+     * computed for the page's table.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, PageLayout layout) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.tableid());
-        this.numSlots = BufferPool.PAGE_SIZE / td.getSize();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.layout = layout;
+        this.td = layout.getTupleDesc();
+        this.numSlots = layout.getNumSlots();
+        if (data.remaining() < layout.getBytesPerPage())
+            throw new IOException("page " + id.pageno() + " is truncated");
+        this.data = data.slice();
 
-        // allocate and read the header slots of this page
-        header = new int[(numSlots/32)+1];
+        // read the header slots of this page
+        header = new int[layout.getHeaderInts()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readInt();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<numSlots; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+            header[i] = this.data.getInt(i * 4);
 
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
     }
 
     /** Return a view of this page before it was modified
@@ -74,37 +107,62 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, decoding it if this is the first time it
+     *   has been asked for, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    Tuple getTuple(int i) {
+        Tuple t = tuples.get(i);
+        if (t != null || !getSlot(i))
+            return t;
+        t = new LazyTuple(this, i, td, null);
+        if (!tuples.compareAndSet(i, null, t))
+            t = tuples.get(i);
+        return t;
+    }
+
+    /**
+     * @return the offset from the start of the page of field j of the tuple
+     *   in slot i.  Rows are stored whole, one after another; subclasses
+     *   with other layouts override this.
+     */
+    int fieldOffset(int i, int j) {
+        return layout.getTupleOffset(i) + layout.getFieldOffset(j);
+    }
+
+    /**
+     * A tuple on a page that decodes each field from the page bytes the
+     * first time it is read, so operators that look at a few columns of
+     * a row never pay for the rest.  A projected tuple maps each of its
+     * fields to a column of the page.
+     */
+    private static class LazyTuple extends Tuple {
+        private final HeapPage page;
+        private final int slot;
+        private final int[] columns;
+
+        LazyTuple(HeapPage page, int slot, TupleDesc td, int[] columns) {
+            super(td);
+            this.page = page;
+            this.slot = slot;
+            this.columns = columns;
+            setRecordID(new RecordID(page.pid, slot));
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordID rid = new RecordID(pid, slotId);
-        t.setRecordID(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                int col = columns == null ? i : columns[i];
+                // Fields are immutable, so two threads decoding the same
+                // field at once is harmless
+                try {
+                    f = page.td.getType(col).parse(page.data, page.fieldOffset(slot, col));
+                } catch (java.text.ParseException e) {
+                    throw new NoSuchElementException("parsing error!");
+                }
+                super.setField(i, f);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return f;
         }
-
-        return t;
     }
 
     /**
@@ -119,62 +177,37 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = header.length*4 + BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        // a new array is all zeroes, so empty slots and the padding at the
+        // end of the page need no writes
+        byte[] out = new byte[layout.getBytesPerPage()];
+        ByteBuffer buf = ByteBuffer.wrap(out);
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeInt(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        for (int i=0; i<header.length; i++)
+            buf.putInt(header[i]);
 
         // create the tuples
         for (int i=0; i<numSlots; i++) {
-
-            // empty slot
-            if (!getSlot(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+            if (!getSlot(i))
                 continue;
-            }
 
-            // non-empty slot
+            Tuple t = tuples.get(i);
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                int off = fieldOffset(i, j);
+                buf.position(off);
+                if (t == null) {
+                    // a tuple that was never read is still exactly as on disk
+                    ByteBuffer raw = data.duplicate();
+                    raw.position(off);
+                    raw.limit(off + td.getType(j).getLen());
+                    buf.put(raw);
+                } else {
+                    t.getField(j).serialize(buf);
                 }
             }
         }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -189,9 +222,7 @@ public class HeapPage implements Page {
      */
     public static byte[] createEmptyPageData(int tableid) {
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
-        int hb = (((BufferPool.PAGE_SIZE / td.getSize()) / 32) +1) * 4;
-        int len = BufferPool.PAGE_SIZE + hb;
-        return new byte[len]; //all 0
+        return new byte[new PageLayout(td).getBytesPerPage()]; //all 0
     }
 
     /**
@@ -274,6 +305,16 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
+        return iterator(null, td);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that decodes only
+     *   the given columns; each returned tuple has schema projected, whose
+     *   field i is column columns[i] of this page.  A null columns array
+     *   returns whole tuples, as {@link #iterator()} does.
+     */
+    public Iterator<Tuple> iterator(final int[] columns, final TupleDesc projected) {
         // some code goes here
         return new Iterator<Tuple>() {
             private int currentSlot = 0;
@@ -293,7 +334,8 @@ public class HeapPage implements Page {
                     throw new NoSuchElementException();
                 }
                 
-                Tuple tuple = tuples[currentSlot];
+                Tuple tuple = columns == null ? getTuple(currentSlot)
+                    : new LazyTuple(HeapPage.this, currentSlot, projected, columns);
                 currentSlot++;
                 return tuple;
             }
@@ -0,0 +1,374 @@
+package simpledb;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The HybridHashJoin operator implements an equality join by hashing, like
+ * HashEquiJoin, but within a fixed memory budget.  Both inputs are split
+ * into partitions by a hash of the join key.  The right (build) child is
+ * read first; each partition is kept in an in-memory hash table until the
+ * tables together outgrow the budget, at which point the largest resident
+ * partition is written out to a SpillFile and the rest of its build tuples
+ * follow it there.  The left (probe) child is then streamed: tuples that
+ * fall in a resident partition are joined immediately, and the others are
+ * spilled to the probe file of their partition.
+ * <p>
+ * Once the probe input is exhausted, each pair of spilled partitions is
+ * joined by a new HybridHashJoin that hashes with a different seed, so a
+ * partition too large for memory is split again.  A partition that is
+ * still too large after MAX_DEPTH levels (typically a single very common
+ * key, which no hash function can split) is joined in memory.
+ */
+public class HybridHashJoin extends AbstractDbIterator {
+
+    /** Default memory budget, in bytes, for the build side. */
+    public static final long DEFAULT_MEMORY_BYTES =
+        Long.getLong("simpledb.JoinMemoryBytes", 16L << 20);
+    /** Number of partitions the inputs are split into at each level. */
+    public static final int PARTITIONS = 16;
+    /** Deepest level of repartitioning before falling back to HashEquiJoin. */
+    public static final int MAX_DEPTH = 4;
+    // estimated heap cost of a resident tuple beyond its field bytes
+    private static final int TUPLE_OVERHEAD = 64;
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc mergedTd;
+    private final int leftFields;
+    private long memoryBytes;
+    private final int depth;
+    private final int seed;
+
+    // per partition: its hash table if resident, else its spill files
+    private HashMap<Field, ArrayList<Tuple>>[] tables;
+    private long[] partitionBytes;
+    private SpillFile[] buildSpill;
+    private SpillFile[] probeSpill;
+    private long residentBytes;
+
+    private boolean probed;
+    private Tuple currentLeft;
+    private Iterator<Tuple> matches;
+    // the join of a pair of spilled partitions, and the next pair to join
+    private DbIterator subJoin;
+    private int nextPartition;
+
+    private long spillBytes = 0;
+    private int spilledPartitions = 0;
+    private int maxDepth;
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on, using the default memory budget.
+     *
+     * @param p The predicate to use to join the children; its operator must
+     *   be Predicate.Op.EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join, which
+     *   is hashed
+     */
+    public HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p The predicate to use to join the children; its operator must
+     *   be Predicate.Op.EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join, which
+     *   is hashed
+     * @param memoryBytes the approximate number of bytes of right tuples to
+     *   hold in memory before spilling partitions to disk
+     */
+    public HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                          long memoryBytes) {
+        this(p, child1, child2, memoryBytes, 0);
+    }
+
+    private HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                           long memoryBytes, int depth) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HybridHashJoin requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mergedTd = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.leftFields = child1.getTupleDesc().numFields();
+        this.memoryBytes = memoryBytes;
+        this.depth = depth;
+        this.seed = 0x9E3779B9 * (depth + 1);
+        this.maxDepth = depth;
+    }
+
+    /**
+     * Set the approximate number of bytes of right tuples to hold in memory;
+     * partitions spill to disk beyond it.  Takes effect at the next open or
+     * rewind.
+     */
+    public void setMemoryBytes(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        release();
+        child1.close();
+        child2.close();
+    }
+
+    /**
+     * Restart the join from the first outer tuple.  Both children are read
+     * again, since spilled partitions are deleted as they are joined.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        release();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    /**
+     * Returns the TupleDesc for this operator, combining the TupleDescs of its
+     * two children.
+     *
+     * @return the TupleDesc that combines the two TupleDescs of the children.
+     */
+    public TupleDesc getTupleDesc() {
+        return mergedTd;
+    }
+
+    /** @return the number of partitions each input is split into */
+    public int getPartitionCount() {
+        return PARTITIONS;
+    }
+
+    /**
+     * @return the number of partitions spilled to disk since this join was
+     *   constructed, including those of repartitioned partitions
+     */
+    public int getSpilledPartitionCount() {
+        int n = spilledPartitions;
+        if (subJoin instanceof HybridHashJoin)
+            n += ((HybridHashJoin) subJoin).getSpilledPartitionCount();
+        return n;
+    }
+
+    /**
+     * @return the number of bytes written to spill files since this join
+     *   was constructed, including those of repartitioned partitions
+     */
+    public long getSpillBytes() {
+        long n = spillBytes;
+        for (int i = 0; buildSpill != null && i < PARTITIONS; i++) {
+            if (buildSpill[i] != null)
+                n += buildSpill[i].getBytesWritten();
+            if (probeSpill[i] != null)
+                n += probeSpill[i].getBytesWritten();
+        }
+        if (subJoin instanceof HybridHashJoin)
+            n += ((HybridHashJoin) subJoin).getSpillBytes();
+        return n;
+    }
+
+    /**
+     * @return the deepest level of repartitioning reached, 0 if no spilled
+     *   partition has been joined
+     */
+    public int getRecursionDepth() {
+        int n = maxDepth - depth;
+        if (subJoin instanceof HybridHashJoin)
+            n = Math.max(n, ((HybridHashJoin) subJoin).getRecursionDepth() + 1);
+        return n;
+    }
+
+    /**
+     * Operator.fetchNext implementation.  Returns the next matching tuple,
+     * the concatenation of the joining left and right tuples, or null if
+     * there are no more matching tuples.
+     *
+     * @see Join#readNext
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (!probed) {
+            if (matches != null && matches.hasNext())
+                return merge(currentLeft, matches.next());
+            if (!child1.hasNext()) {
+                // the resident partitions are done with
+                probed = true;
+                tables = null;
+                break;
+            }
+            Tuple t = child1.next();
+            Field key = t.getField(p.getField1());
+            int part = partition(key);
+            if (tables[part] != null) {
+                currentLeft = t;
+                ArrayList<Tuple> bucket = tables[part].get(key);
+                matches = bucket == null ? null : bucket.iterator();
+            } else {
+                try {
+                    probeSpill[part].add(t);
+                } catch (IOException e) {
+                    throw new DbException("Error spilling join input: " + e.getMessage());
+                }
+            }
+        }
+
+        while (true) {
+            if (subJoin != null) {
+                if (subJoin.hasNext())
+                    return subJoin.next();
+                finishPartition();
+            }
+            if (nextPartition == PARTITIONS)
+                return null;
+            startPartition(nextPartition++);
+        }
+    }
+
+    /** Read the right child into resident partitions and spill files. */
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException {
+        tables = new HashMap[PARTITIONS];
+        partitionBytes = new long[PARTITIONS];
+        buildSpill = new SpillFile[PARTITIONS];
+        probeSpill = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++)
+            tables[i] = new HashMap<Field, ArrayList<Tuple>>();
+        residentBytes = 0;
+        int tupleBytes = child2.getTupleDesc().getSize() + TUPLE_OVERHEAD;
+
+        try {
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                Field key = t.getField(p.getField2());
+                int part = partition(key);
+                if (tables[part] == null) {
+                    buildSpill[part].add(t);
+                    continue;
+                }
+                ArrayList<Tuple> bucket = tables[part].get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Tuple>(1);
+                    tables[part].put(key, bucket);
+                }
+                bucket.add(t);
+                partitionBytes[part] += tupleBytes;
+                residentBytes += tupleBytes;
+                while (residentBytes > memoryBytes)
+                    spillLargest();
+            }
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildSpill[i] != null)
+                    probeSpill[i] = new SpillFile(child1.getTupleDesc());
+            }
+        } catch (IOException e) {
+            throw new DbException("Error spilling join input: " + e.getMessage());
+        }
+
+        probed = false;
+        currentLeft = null;
+        matches = null;
+        nextPartition = 0;
+    }
+
+    /** Move the largest resident partition to disk. */
+    private void spillLargest() throws IOException {
+        int victim = -1;
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (tables[i] != null && (victim < 0 || partitionBytes[i] > partitionBytes[victim]))
+                victim = i;
+        }
+        SpillFile f = new SpillFile(child2.getTupleDesc());
+        for (ArrayList<Tuple> bucket : tables[victim].values()) {
+            for (Tuple t : bucket)
+                f.add(t);
+        }
+        buildSpill[victim] = f;
+        tables[victim] = null;
+        residentBytes -= partitionBytes[victim];
+        spilledPartitions++;
+    }
+
+    /** Begin joining the spilled partition part, if it has one. */
+    private void startPartition(int part) throws DbException, TransactionAbortedException {
+        if (buildSpill[part] == null)
+            return;
+        if (probeSpill[part].numTuples() == 0) {
+            finishPartition(part);
+            return;
+        }
+        DbIterator left = probeSpill[part].iterator();
+        DbIterator right = buildSpill[part].iterator();
+        if (depth + 1 < MAX_DEPTH) {
+            subJoin = new HybridHashJoin(p, left, right, memoryBytes, depth + 1);
+        } else {
+            subJoin = new HashEquiJoin(p, left, right);
+        }
+        maxDepth = Math.max(maxDepth, depth + 1);
+        subJoin.open();
+    }
+
+    /** Close the current partition join and delete its files. */
+    private void finishPartition() {
+        if (subJoin instanceof HybridHashJoin) {
+            HybridHashJoin sub = (HybridHashJoin) subJoin;
+            spilledPartitions += sub.getSpilledPartitionCount();
+            spillBytes += sub.getSpillBytes();
+            maxDepth = Math.max(maxDepth, depth + 1 + sub.getRecursionDepth());
+        }
+        subJoin.close();
+        subJoin = null;
+        finishPartition(nextPartition - 1);
+    }
+
+    private void finishPartition(int part) {
+        spillBytes += buildSpill[part].getBytesWritten() + probeSpill[part].getBytesWritten();
+        buildSpill[part].delete();
+        probeSpill[part].delete();
+        buildSpill[part] = null;
+        probeSpill[part] = null;
+    }
+
+    /** Drop the hash tables and delete any spill files still on disk. */
+    private void release() {
+        if (subJoin != null)
+            finishPartition();
+        for (int i = 0; buildSpill != null && i < PARTITIONS; i++) {
+            if (buildSpill[i] != null)
+                finishPartition(i);
+        }
+        tables = null;
+        buildSpill = null;
+        probeSpill = null;
+        currentLeft = null;
+        matches = null;
+    }
+
+    /** @return the partition of key at this level of repartitioning */
+    private int partition(Field key) {
+        // mix the key's hash with this level's seed, so that a partition
+        // split again at the next level spreads over all the partitions
+        int h = key.hashCode() ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        return new JoinedTuple(mergedTd, left, right, leftFields);
+    }
+}
@@ -4,6 +4,12 @@ import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups keyed by an int (and the single group when there is no grouping)
+ * are kept in an open-addressing table of primitive arrays, so merging a
+ * tuple allocates nothing and never boxes its key.  Sums are kept as longs,
+ * so AVG is exact however large the group; a SUM outside the int range is
+ * truncated when it is returned as an IntField.
  */
 public class IntAggregator implements Aggregator {
 
@@ -14,28 +20,24 @@ public class IntAggregator implements Aggregator {
 
     private static class AggState {
         int count = 0;
-        int sum = 0;
+        long sum = 0;
         int min = Integer.MAX_VALUE;
         int max = Integer.MIN_VALUE;
-        void add(int v) {
-            count++;
-            sum += v;
-            min = Math.min(min, v);
-            max = Math.max(max, v);
+        void add(int count, long sum, int min, int max) {
+            this.count += count;
+            this.sum += sum;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
         }
         int value(Op op) {
-            switch (op) {
-                case COUNT: return count;
-                case SUM: return sum;
-                case AVG: return count == 0 ? 0 : (sum / count);
-                case MIN: return count == 0 ? 0 : min;
-                case MAX: return count == 0 ? 0 : max;
-                default: throw new IllegalArgumentException("Unsupported op for IntAggregator");
-            }
+            return IntAggregator.value(op, count, sum, min, max);
         }
     }
 
-    private final Map<Field, AggState> groups = new HashMap<Field, AggState>();
+    // groups with int keys, or the single group if there is no grouping
+    private final IntTable intGroups;
+    // groups with any other key type
+    private final Map<Field, AggState> groups;
 
     /**
      * Aggregate constructor
@@ -50,6 +52,13 @@ public class IntAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
+        if (gbfield == NO_GROUPING || gbfieldtype == Type.INT_TYPE) {
+            this.intGroups = new IntTable();
+            this.groups = null;
+        } else {
+            this.intGroups = null;
+            this.groups = new HashMap<Field, AggState>();
+        }
     }
 
     /**
@@ -57,14 +66,22 @@ public class IntAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void merge(Tuple tup) {
-        Field key = (gbfield == NO_GROUPING) ? null : tup.getField(gbfield);
-        IntField aval = (IntField) tup.getField(afield);
+        int v = ((IntField) tup.getField(afield)).getValue();
+        if (intGroups != null) {
+            int key = gbfield == NO_GROUPING ? 0 : ((IntField) tup.getField(gbfield)).getValue();
+            intGroups.add(key, 1, v, v, v);
+            return;
+        }
+        group(tup.getField(gbfield)).add(1, v, v, v);
+    }
+
+    private AggState group(Field key) {
         AggState st = groups.get(key);
         if (st == null) {
             st = new AggState();
             groups.put(key, st);
         }
-        st.add(aval.getValue());
+        return st;
     }
 
     /**
@@ -82,16 +99,30 @@ public class IntAggregator implements Aggregator {
         if (grouping) {
             td = new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE },
                                new String[] { null, null });
-            for (Map.Entry<Field, AggState> e : groups.entrySet()) {
-                Tuple t = new Tuple(td);
-                t.setField(0, e.getKey());
-                t.setField(1, new IntField(e.getValue().value(what)));
-                out.add(t);
+            if (intGroups != null) {
+                IntTable g = intGroups;
+                for (int s = 0; s < g.keys.length; s++) {
+                    if (g.counts[s] == 0)
+                        continue;
+                    Tuple t = new Tuple(td);
+                    t.setField(0, new IntField(g.keys[s]));
+                    t.setField(1, new IntField(value(what, g.counts[s], g.sums[s],
+                                                     g.mins[s], g.maxs[s])));
+                    out.add(t);
+                }
+            } else {
+                for (Map.Entry<Field, AggState> e : groups.entrySet()) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, e.getKey());
+                    t.setField(1, new IntField(e.getValue().value(what)));
+                    out.add(t);
+                }
             }
         } else {
             td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { null });
-            AggState st = groups.get(null);
-            int v = (st == null) ? 0 : st.value(what);
+            int s = intGroups.find(0);
+            int v = s < 0 ? 0 : value(what, intGroups.counts[s], intGroups.sums[s],
+                                      intGroups.mins[s], intGroups.maxs[s]);
             Tuple t = new Tuple(td);
             t.setField(0, new IntField(v));
             out.add(t);
@@ -99,4 +130,151 @@ public class IntAggregator implements Aggregator {
         return new TupleIterator(td, out);
     }
 
+    /** @return the number of groups seen so far */
+    int numGroups() {
+        return intGroups != null ? intGroups.size : groups.size();
+    }
+
+    /**
+     * The partial state of a group is its count, the high and low ints of
+     * its sum, its min and its max, after the group value if grouping.
+     */
+    public DbIterator partials() {
+        boolean grouping = (gbfield != NO_GROUPING);
+        Type[] types = new Type[grouping ? 6 : 5];
+        Arrays.fill(types, Type.INT_TYPE);
+        if (grouping)
+            types[0] = gbfieldtype;
+        TupleDesc td = new TupleDesc(types);
+        List<Tuple> out = new ArrayList<Tuple>();
+        if (intGroups != null) {
+            IntTable g = intGroups;
+            for (int s = 0; s < g.keys.length; s++) {
+                if (g.counts[s] != 0)
+                    out.add(partial(td, grouping ? new IntField(g.keys[s]) : null,
+                                    g.counts[s], g.sums[s], g.mins[s], g.maxs[s]));
+            }
+        } else {
+            for (Map.Entry<Field, AggState> e : groups.entrySet()) {
+                AggState st = e.getValue();
+                out.add(partial(td, e.getKey(), st.count, st.sum, st.min, st.max));
+            }
+        }
+        return new TupleIterator(td, out);
+    }
+
+    private static Tuple partial(TupleDesc td, Field key, int count, long sum, int min, int max) {
+        Tuple t = new Tuple(td);
+        int i = 0;
+        if (key != null)
+            t.setField(i++, key);
+        t.setField(i++, new IntField(count));
+        t.setField(i++, new IntField((int) (sum >>> 32)));
+        t.setField(i++, new IntField((int) sum));
+        t.setField(i++, new IntField(min));
+        t.setField(i++, new IntField(max));
+        return t;
+    }
+
+    public void mergePartial(Tuple partial) {
+        int i = gbfield == NO_GROUPING ? 0 : 1;
+        int count = ((IntField) partial.getField(i)).getValue();
+        long sum = ((long) ((IntField) partial.getField(i + 1)).getValue() << 32)
+            | (((IntField) partial.getField(i + 2)).getValue() & 0xffffffffL);
+        int min = ((IntField) partial.getField(i + 3)).getValue();
+        int max = ((IntField) partial.getField(i + 4)).getValue();
+        if (intGroups != null) {
+            int key = gbfield == NO_GROUPING ? 0 : ((IntField) partial.getField(0)).getValue();
+            intGroups.add(key, count, sum, min, max);
+        } else {
+            group(partial.getField(0)).add(count, sum, min, max);
+        }
+    }
+
+    static int value(Op op, int count, long sum, int min, int max) {
+        switch (op) {
+            case COUNT: return count;
+            case SUM: return (int) sum;
+            case AVG: return count == 0 ? 0 : (int) (sum / count);
+            case MIN: return count == 0 ? 0 : min;
+            case MAX: return count == 0 ? 0 : max;
+            default: throw new IllegalArgumentException("Unsupported op for IntAggregator");
+        }
+    }
+
+    /**
+     * An open-addressing hash table from int keys to aggregate states,
+     * stored in parallel arrays.  A slot is empty if its count is 0.
+     */
+    private static final class IntTable {
+        private static final int INITIAL_CAPACITY = 64;
+
+        int[] keys = new int[INITIAL_CAPACITY];
+        int[] counts = new int[INITIAL_CAPACITY];
+        long[] sums = new long[INITIAL_CAPACITY];
+        int[] mins = new int[INITIAL_CAPACITY];
+        int[] maxs = new int[INITIAL_CAPACITY];
+        int size = 0;
+
+        void add(int key, int count, long sum, int min, int max) {
+            int s = slot(keys, counts, key);
+            if (counts[s] == 0) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    s = slot(keys, counts, key);
+                }
+                keys[s] = key;
+                mins[s] = Integer.MAX_VALUE;
+                maxs[s] = Integer.MIN_VALUE;
+                size++;
+            }
+            counts[s] += count;
+            sums[s] += sum;
+            if (min < mins[s])
+                mins[s] = min;
+            if (max > maxs[s])
+                maxs[s] = max;
+        }
+
+        /** @return the slot holding key, or -1 if it is not in the table */
+        int find(int key) {
+            int s = slot(keys, counts, key);
+            return counts[s] == 0 ? -1 : s;
+        }
+
+        /** @return the slot holding key, or the empty slot it belongs in */
+        private static int slot(int[] keys, int[] counts, int key) {
+            int mask = keys.length - 1;
+            int s = hash(key) & mask;
+            while (counts[s] != 0 && keys[s] != key)
+                s = (s + 1) & mask;
+            return s;
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldCounts = counts, oldMins = mins, oldMaxs = maxs;
+            long[] oldSums = sums;
+            int n = oldKeys.length * 2;
+            keys = new int[n];
+            counts = new int[n];
+            sums = new long[n];
+            mins = new int[n];
+            maxs = new int[n];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] == 0)
+                    continue;
+                int s = slot(keys, counts, oldKeys[i]);
+                keys[s] = oldKeys[i];
+                counts[s] = oldCounts[i];
+                sums[s] = oldSums[i];
+                mins[s] = oldMins[i];
+                maxs[s] = oldMaxs[i];
+            }
+        }
+    }
 }
@@ -3,14 +3,33 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Read as a BatchIterator, it joins a batch of the left child with each
+ * batch of the right child in turn, so the right child is rewound once per
+ * left batch rather than once per left tuple.
  */
-public class Join extends AbstractDbIterator {
+public class Join extends AbstractDbIterator implements BatchIterator {
 
     private final JoinPredicate p;
     private final DbIterator child1;
     private final DbIterator child2;
     private Tuple currentLeft;
     private TupleDesc mergedTd;
+    private final int leftFields;
+
+    // the state of nextBatch: the batches being joined, the next selected
+    // row of leftBatch to join with rightBatch, and the rows of rightBatch
+    // that match leftRow not yet returned
+    private final BatchIterator batchChild1;
+    private final BatchIterator batchChild2;
+    private TupleBatch leftBatch;
+    private TupleBatch rightBatch;
+    private int leftPos;
+    private int leftRow;
+    private final int[] matches = new int[TupleBatch.MAX_ROWS];
+    private int matchPos;
+    private int matchCount;
+    private TupleBatch out;
 
     /**
      * Constructor.  Accepts to children to join and the predicate
@@ -26,6 +45,16 @@ public class Join extends AbstractDbIterator {
         this.child2 = child2;
         this.currentLeft = null;
         this.mergedTd = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.leftFields = child1.getTupleDesc().numFields();
+        this.batchChild1 = BatchingIterator.of(child1);
+        this.batchChild2 = BatchingIterator.of(child2);
+    }
+
+    private void resetBatches() {
+        leftBatch = null;
+        rightBatch = null;
+        matchPos = 0;
+        matchCount = 0;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -33,6 +62,7 @@ public class Join extends AbstractDbIterator {
         child1.open();
         child2.open();
         currentLeft = null;
+        resetBatches();
     }
 
     public void close() {
@@ -40,12 +70,14 @@ public class Join extends AbstractDbIterator {
         child1.close();
         child2.close();
         currentLeft = null;
+        resetBatches();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
         currentLeft = null;
+        resetBatches();
     }
 
     /**
@@ -70,6 +102,8 @@ public class Join extends AbstractDbIterator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * The returned tuple is a JoinedTuple view of the two, so no fields are
+     * copied.
      *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
@@ -86,15 +120,7 @@ public class Join extends AbstractDbIterator {
             while (child2.hasNext()) {
                 Tuple right = child2.next();
                 if (p.filter(currentLeft, right)) {
-                    Tuple out = new Tuple(mergedTd);
-                    int idx = 0;
-                    for (int i = 0; i < currentLeft.getTupleDesc().numFields(); i++) {
-                        out.setField(idx++, currentLeft.getField(i));
-                    }
-                    for (int j = 0; j < right.getTupleDesc().numFields(); j++) {
-                        out.setField(idx++, right.getField(j));
-                    }
-                    return out;
+                    return new JoinedTuple(mergedTd, currentLeft, right, leftFields);
                 }
             }
             // exhausted right, move to next left
@@ -102,4 +128,39 @@ public class Join extends AbstractDbIterator {
             currentLeft = null;
         }
     }
+
+    /**
+     * BatchIterator.nextBatch implementation.  Returns the next batch of
+     * joined tuples, each the concatenation of a left and a right tuple as
+     * readNext returns them.  For each left batch, the right child is read
+     * a batch at a time, and each left row compared with a whole right
+     * batch by JoinPredicate#filter(TupleBatch, int, TupleBatch, int[]).
+     * Tuples are joined in a different order than readNext joins them.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(mergedTd);
+        out.clear();
+        while (!out.isFull()) {
+            if (matchPos < matchCount) {
+                int row = out.addRow();
+                out.copy(leftBatch, leftRow, row, 0);
+                out.copy(rightBatch, matches[matchPos++], row, leftFields);
+            } else if (rightBatch != null && leftPos < leftBatch.numRows()) {
+                leftRow = leftBatch.row(leftPos++);
+                matchCount = p.filter(leftBatch, leftRow, rightBatch, matches);
+                matchPos = 0;
+            } else if (leftBatch != null && (rightBatch = batchChild2.nextBatch()) != null) {
+                leftPos = 0;
+            } else {
+                // leftBatch has been joined with every right batch
+                if (leftBatch != null)
+                    batchChild2.rewind();
+                leftBatch = batchChild1.nextBatch();
+                if (leftBatch == null)
+                    break;
+            }
+        }
+        return out.numRows() == 0 ? null : out;
+    }
 }
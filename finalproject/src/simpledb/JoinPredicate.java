@@ -39,4 +39,58 @@ public class JoinPredicate {
         Field f2 = t2.getField(field2);
         return f1.compare(op, f2);
     }
+
+    /**
+     * Apply the predicate to one row of a batch of first tuples and every
+     * selected row of a batch of second tuples.
+     *
+     * @param left the batch of first tuples
+     * @param leftRow the physical index of the row of left to compare
+     * @param right the batch of second tuples
+     * @param out where to write the physical indexes of the rows of right
+     *   that satisfy the predicate, in order
+     * @return the number of indexes written to out
+     */
+    public int filter(TupleBatch left, int leftRow, TupleBatch right, int[] out) {
+        int n = right.numRows();
+        int k = 0;
+        if (left.getTupleDesc().getType(field1) == Type.INT_TYPE) {
+            // v op x is x (op reversed) v, a range of x
+            int v = left.getInts(field1)[leftRow];
+            Predicate.Op reversed = reverse(op);
+            long lo = Predicate.lowerBound(reversed, v);
+            long hi = Predicate.upperBound(reversed, v);
+            int[] col = right.getInts(field2);
+            for (int i = 0; i < n; i++) {
+                int r = right.row(i);
+                if (col[r] >= lo && col[r] <= hi)
+                    out[k++] = r;
+            }
+        } else {
+            String v = left.getStrings(field1)[leftRow];
+            String[] col = right.getStrings(field2);
+            for (int i = 0; i < n; i++) {
+                int r = right.row(i);
+                if (Predicate.matches(op, v, col[r]))
+                    out[k++] = r;
+            }
+        }
+        return k;
+    }
+
+    /** @return the op that holds of (b, a) whenever op holds of (a, b), for ints */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
 }
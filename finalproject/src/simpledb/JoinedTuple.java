@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * JoinedTuple is the output of a join: a view of a left and a right tuple
+ * that returns the fields of the left followed by those of the right.  No
+ * fields are copied, so producing a wide join tuple costs one small object
+ * however many fields the inputs have.
+ * <p>
+ * A field set on the view is kept by the view; the joined tuples, which may
+ * be shared by many outputs, are never changed.
+ */
+public class JoinedTuple extends Tuple {
+    private final Tuple left;
+    private final Tuple right;
+    private final int leftFields;
+    private Field[] changed;
+
+    /**
+     * @param td the schema of the join output, the left schema followed by
+     *   the right
+     * @param left the tuple supplying the first leftFields fields
+     * @param right the tuple supplying the remaining fields
+     * @param leftFields the number of fields in left
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right, int leftFields) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.leftFields = leftFields;
+    }
+
+    /** @return the left tuple of the join */
+    public Tuple getLeft() {
+        return left;
+    }
+
+    /** @return the right tuple of the join */
+    public Tuple getRight() {
+        return right;
+    }
+
+    public Field getField(int i) {
+        if (i < 0 || i >= getTupleDesc().numFields()) {
+            throw new IndexOutOfBoundsException("Invalid field index: " + i);
+        }
+        if (changed != null && changed[i] != null)
+            return changed[i];
+        return i < leftFields ? left.getField(i) : right.getField(i - leftFields);
+    }
+
+    public void setField(int i, Field f) {
+        if (i < 0 || i >= getTupleDesc().numFields()) {
+            throw new IndexOutOfBoundsException("Invalid field index: " + i);
+        }
+        if (changed == null)
+            changed = new Field[getTupleDesc().numFields()];
+        changed[i] = f;
+    }
+}
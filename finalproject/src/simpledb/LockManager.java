@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * LockManager hands out page-level shared and exclusive locks to
+ * transactions on behalf of the BufferPool.
+ * <p>
+ * The lock table is a concurrent map with one lock object per page, and a
+ * transaction only ever synchronizes on the lock of the page it is asking
+ * for, so requests for different pages never contend.  A shared lock is
+ * upgraded to an exclusive one when its holder is the only one left.
+ * <p>
+ * A transaction that has to wait records the page it is waiting for.
+ * Before (and periodically while) blocking it walks the resulting
+ * waits-for graph; if the graph leads back to itself the request is
+ * refused with a TransactionAbortedException, and the caller is expected
+ * to abort the transaction so its locks are released.
+ */
+public class LockManager {
+    /** How often a blocked request re-checks for deadlock, in ms. */
+    static final long DEADLOCK_RECHECK_MS = 50;
+
+    private static class PageLock {
+        // readers hold the lock shared; the writer, if any, is also a holder
+        final Set<TransactionId> holders = ConcurrentHashMap.newKeySet();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        // set once the lock has been dropped from the lock table
+        boolean retired = false;
+
+        /** Try to grant the lock; caller must hold this object's monitor. */
+        boolean tryGrant(TransactionId tid, boolean wantExclusive) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!wantExclusive) {
+                holders.add(tid);
+                return true;
+            }
+            if (holders.isEmpty() || (holders.size() == 1 && holders.contains(tid))) {
+                holders.add(tid);
+                exclusive = tid;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks =
+        new ConcurrentHashMap<PageId, PageLock>();
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held =
+        new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    // the edges of the waits-for graph: a waiting transaction points at
+    // the page it wants, and through it at that page's holders
+    private final ConcurrentHashMap<TransactionId, PageId> waitingFor =
+        new ConcurrentHashMap<TransactionId, PageId>();
+
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private volatile long statsStart = System.nanoTime();
+
+    /**
+     * Acquire a lock on pid for tid, blocking while another transaction holds
+     * a conflicting lock.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *   thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean wantExclusive = perm == Permissions.READ_WRITE;
+        long waitStart = 0;
+        try {
+            while (true) {
+                PageLock lock = locks.get(pid);
+                if (lock == null) {
+                    PageLock fresh = new PageLock();
+                    lock = locks.putIfAbsent(pid, fresh);
+                    if (lock == null)
+                        lock = fresh;
+                }
+                synchronized (lock) {
+                    if (lock.retired)
+                        continue;
+                    if (lock.tryGrant(tid, wantExclusive)) {
+                        heldBy(tid).add(pid);
+                        return;
+                    }
+                    if (waitStart == 0) {
+                        waitStart = System.nanoTime();
+                        waits.increment();
+                    }
+                    waitingFor.put(tid, pid);
+                    if (deadlocked(tid)) {
+                        aborts.increment();
+                        throw new TransactionAbortedException();
+                    }
+                    lock.waiters++;
+                    try {
+                        lock.wait(DEADLOCK_RECHECK_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        aborts.increment();
+                        throw new TransactionAbortedException();
+                    } finally {
+                        lock.waiters--;
+                    }
+                }
+            }
+        } finally {
+            if (waitStart != 0) {
+                waitingFor.remove(tid);
+                waitNanos.add(System.nanoTime() - waitStart);
+            }
+        }
+    }
+
+    /** Return true if tid holds a (shared or exclusive) lock on pid. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.holders.contains(tid);
+    }
+
+    /** Release whatever lock tid holds on pid. */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        unlock(tid, pid);
+    }
+
+    /** Release every lock held by tid. */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            unlock(tid, pid);
+    }
+
+    /** @return the pages tid currently holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(pages);
+    }
+
+    /** @return the number of lock requests that had to wait */
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    /** @return the total time lock requests spent waiting, in nanoseconds */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /** @return the number of requests refused because of deadlock */
+    public long getAbortCount() {
+        return aborts.sum();
+    }
+
+    /** @return refused requests per second since the stats were last reset */
+    public double getAbortsPerSecond() {
+        double secs = (System.nanoTime() - statsStart) / 1e9;
+        return secs <= 0 ? 0 : aborts.sum() / secs;
+    }
+
+    /** Reset the wait and abort counters. */
+    public void resetStats() {
+        waits.reset();
+        waitNanos.reset();
+        aborts.reset();
+        statsStart = System.nanoTime();
+    }
+
+    private Set<PageId> heldBy(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = ConcurrentHashMap.newKeySet();
+            pages = held.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        return pages;
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            if (!lock.holders.remove(tid))
+                return;
+            if (lock.exclusive != null && lock.exclusive.equals(tid))
+                lock.exclusive = null;
+            if (lock.holders.isEmpty() && lock.waiters == 0) {
+                lock.retired = true;
+                locks.remove(pid, lock);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Walk the waits-for graph from tid; true if it leads back to tid.
+     * Other pages' holder sets are read without their monitors, so the
+     * walk sees a slightly stale graph; a cycle it misses is found on the
+     * next re-check.
+     */
+    private boolean deadlocked(TransactionId tid) {
+        ArrayDeque<TransactionId> stack = new ArrayDeque<TransactionId>();
+        Set<TransactionId> visited = new HashSet<TransactionId>();
+        stack.push(tid);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            PageId wanted = waitingFor.get(t);
+            if (wanted == null)
+                continue;
+            PageLock lock = locks.get(wanted);
+            if (lock == null)
+                continue;
+            for (TransactionId holder : lock.holders) {
+                if (holder.equals(t))
+                    continue;
+                if (holder.equals(tid))
+                    return true;
+                if (visited.add(holder))
+                    stack.push(holder);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Classic least-recently-used replacement: the victim is the evictable page
+ * whose last access is the oldest.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    // access-ordered, so iteration starts at the least recently used page
+    private final LinkedHashMap<PageId, Boolean> pages =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public synchronized void pageAdmitted(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        pages.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        for (PageId pid : pages.keySet()) {
+            if (evictable.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String name() {
+        return "lru";
+    }
+}
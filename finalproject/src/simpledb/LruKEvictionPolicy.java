@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  For every page the policy
+ * remembers the times of its last K references; the victim is the evictable
+ * page whose K-th most recent reference is the oldest.  Pages referenced
+ * fewer than K times have an infinite backward K-distance and are evicted
+ * first, oldest last reference first, which keeps one-off scan pages from
+ * pushing out the working set.
+ * <p>
+ * Reference history outlives eviction for up to capacity pages, so a page
+ * that is re-read soon after being evicted keeps its history.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int historyCapacity;
+    private long clock = 0;
+
+    // history[0] is the most recent reference time; 0 means "never"
+    private final Map<PageId, long[]> resident = new HashMap<PageId, long[]>();
+    private final LinkedHashMap<PageId, long[]> retired = new LinkedHashMap<PageId, long[]>();
+
+    /**
+     * @param k the number of references remembered per page
+     * @param capacity the buffer pool size; bounds the retained history
+     */
+    public LruKEvictionPolicy(int k, int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.historyCapacity = Math.max(capacity, 1);
+    }
+
+    public LruKEvictionPolicy(int capacity) {
+        this(DEFAULT_K, capacity);
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        long[] hist = retired.remove(pid);
+        if (hist == null)
+            hist = new long[k];
+        resident.put(pid, hist);
+        reference(hist);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] hist = resident.get(pid);
+        if (hist != null)
+            reference(hist);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] hist = resident.remove(pid);
+        if (hist == null)
+            return;
+        retired.put(pid, hist);
+        if (retired.size() > historyCapacity) {
+            Iterator<PageId> it = retired.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] hist = e.getValue();
+            long kth = hist[k - 1];
+            long last = hist[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!evictable.canEvict(e.getKey()))
+                    continue;
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+
+    public String name() {
+        return "lru-" + k;
+    }
+
+    private void reference(long[] hist) {
+        System.arraycopy(hist, 0, hist, 1, k - 1);
+        hist[0] = ++clock;
+    }
+}
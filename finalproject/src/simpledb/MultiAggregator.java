@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes several aggregates at once, grouped by any number of columns.
+ * Each tuple merged is looked up once, by its composite group value, and
+ * folded into the state of every aggregate of its group, so a query with
+ * several aggregates needs only one pass over its input.
+ * <p>
+ * An aggregate over an IntField supports every Op; one over a StringField
+ * supports only COUNT.
+ * <p>
+ * With normalized keys enabled, groups are hashed and matched on the
+ * NormalizedKey bytes of their group values instead of on the Fields.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] whats;
+
+    // per group, the count, sum, min and max of each aggregate in turn
+    private final Map<GroupKey, long[]> groups = new HashMap<GroupKey, long[]>();
+    // encodes group values, if groups are matched on normalized keys
+    private NormalizedKey normalizer;
+
+    /**
+     * Aggregate constructor
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple;
+     *   empty if there is no grouping
+     * @param gbfieldtypes the types of the group-by fields
+     * @param afields the 0-based indexes of the aggregate fields in the tuple,
+     *   one per aggregate
+     * @param afieldtypes the types of the aggregate fields
+     * @param whats the aggregation operator of each aggregate
+     * @throws IllegalArgumentException if the arrays do not match in length,
+     *   or an aggregate over a StringField is not COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes,
+                           int[] afields, Type[] afieldtypes, Op[] whats) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != afieldtypes.length
+            || afields.length != whats.length)
+            throw new IllegalArgumentException("mismatched field and type lists");
+        for (int i = 0; i < whats.length; i++) {
+            if (afieldtypes[i] == Type.STRING_TYPE && whats[i] != Op.COUNT)
+                throw new IllegalArgumentException("Only COUNT is supported over a StringField");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.afieldtypes = afieldtypes.clone();
+        this.whats = whats.clone();
+        setNormalizedKeys(NormalizedKey.DEFAULT_ENABLED);
+    }
+
+    /**
+     * Set whether groups are matched on the normalized keys of their group
+     * values.  May only be called before anything is merged.
+     */
+    void setNormalizedKeys(boolean normalizedKeys) {
+        if (!groups.isEmpty())
+            throw new IllegalStateException("groups already merged");
+        normalizer = null;
+        if (normalizedKeys) {
+            boolean[] asc = new boolean[gbfieldtypes.length];
+            Arrays.fill(asc, true);
+            normalizer = new NormalizedKey(gbfieldtypes, asc);
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates for its group.
+     * @param tup the Tuple containing the aggregate and group-by fields
+     */
+    public void merge(Tuple tup) {
+        long[] st = group(key(tup, false));
+        for (int i = 0; i < afields.length; i++) {
+            if (afieldtypes[i] == Type.STRING_TYPE) {
+                st[4 * i]++;
+            } else {
+                int v = ((IntField) tup.getField(afields[i])).getValue();
+                add(st, i, 1, v, v, v);
+            }
+        }
+    }
+
+    /**
+     * Merge the selected rows of a batch, whose schema is that of the
+     * tuples merged, into the aggregates for their groups.  Without
+     * grouping, each aggregate column is folded in one loop over its
+     * array, with no Field objects made.
+     */
+    void merge(TupleBatch batch) {
+        int n = batch.numRows();
+        if (gbfields.length > 0) {
+            for (int i = 0; i < n; i++)
+                merge(batch.getTuple(i));
+            return;
+        }
+        if (n == 0)
+            return;
+        Field[] none = new Field[0];
+        long[] st = group(new GroupKey(none, normalizer == null ? null : normalizer.encode(none)));
+        for (int a = 0; a < afields.length; a++) {
+            if (afieldtypes[a] == Type.STRING_TYPE) {
+                st[4 * a] += n;
+                continue;
+            }
+            int[] col = batch.getInts(afields[a]);
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                int v = col[batch.row(i)];
+                sum += v;
+                if (v < min)
+                    min = v;
+                if (v > max)
+                    max = v;
+            }
+            add(st, a, n, sum, min, max);
+        }
+    }
+
+    /** @return the group of tup, whose group values lead it if it is a partial */
+    private GroupKey key(Tuple tup, boolean partial) {
+        Field[] values = new Field[gbfields.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = tup.getField(partial ? i : gbfields[i]);
+        return new GroupKey(values, normalizer == null ? null : normalizer.encode(values));
+    }
+
+    private long[] group(GroupKey key) {
+        long[] st = groups.get(key);
+        if (st == null) {
+            st = new long[4 * afields.length];
+            for (int i = 0; i < afields.length; i++) {
+                st[4 * i + 2] = Integer.MAX_VALUE;
+                st[4 * i + 3] = Integer.MIN_VALUE;
+            }
+            groups.put(key, st);
+        }
+        return st;
+    }
+
+    private static void add(long[] st, int i, int count, long sum, int min, int max) {
+        st[4 * i] += count;
+        st[4 * i + 1] += sum;
+        if (min < st[4 * i + 2])
+            st[4 * i + 2] = min;
+        if (max > st[4 * i + 3])
+            st[4 * i + 3] = max;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group values followed by
+     *   the value of each aggregate, in the order given to the
+     *   constructor.  With no grouping there is a single tuple, even if
+     *   nothing was merged.
+     */
+    public DbIterator iterator() {
+        Type[] types = new Type[gbfields.length + afields.length];
+        System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        TupleDesc td = new TupleDesc(types);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (Map.Entry<GroupKey, long[]> e : groups.entrySet())
+            out.add(result(td, e.getKey().values, e.getValue()));
+        if (gbfields.length == 0 && groups.isEmpty())
+            out.add(result(td, new Field[0], new long[4 * afields.length]));
+        return new TupleIterator(td, out);
+    }
+
+    private Tuple result(TupleDesc td, Field[] key, long[] st) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < key.length; i++)
+            t.setField(i, key[i]);
+        for (int i = 0; i < afields.length; i++) {
+            t.setField(key.length + i, new IntField(
+                IntAggregator.value(whats[i], (int) st[4 * i], st[4 * i + 1],
+                                    (int) st[4 * i + 2], (int) st[4 * i + 3])));
+        }
+        return t;
+    }
+
+    /** @return the number of groups seen so far */
+    int numGroups() {
+        return groups.size();
+    }
+
+    /**
+     * The partial state of a group is its group values followed by, for
+     * each aggregate, its count, the high and low ints of its sum, its min
+     * and its max.
+     */
+    public DbIterator partials() {
+        Type[] types = new Type[gbfields.length + 5 * afields.length];
+        System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        TupleDesc td = new TupleDesc(types);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (Map.Entry<GroupKey, long[]> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            Field[] key = e.getKey().values;
+            int f = 0;
+            for (; f < key.length; f++)
+                t.setField(f, key[f]);
+            long[] st = e.getValue();
+            for (int i = 0; i < afields.length; i++) {
+                t.setField(f++, new IntField((int) st[4 * i]));
+                t.setField(f++, new IntField((int) (st[4 * i + 1] >>> 32)));
+                t.setField(f++, new IntField((int) st[4 * i + 1]));
+                t.setField(f++, new IntField((int) st[4 * i + 2]));
+                t.setField(f++, new IntField((int) st[4 * i + 3]));
+            }
+            out.add(t);
+        }
+        return new TupleIterator(td, out);
+    }
+
+    public void mergePartial(Tuple partial) {
+        long[] st = group(key(partial, true));
+        int f = gbfields.length;
+        for (int i = 0; i < afields.length; i++, f += 5) {
+            int count = ((IntField) partial.getField(f)).getValue();
+            long sum = ((long) ((IntField) partial.getField(f + 1)).getValue() << 32)
+                | (((IntField) partial.getField(f + 2)).getValue() & 0xffffffffL);
+            int min = ((IntField) partial.getField(f + 3)).getValue();
+            int max = ((IntField) partial.getField(f + 4)).getValue();
+            add(st, i, count, sum, min, max);
+        }
+    }
+
+    /**
+     * A composite group value, comparable by the values of its fields, or
+     * by their normalized key if it has one.
+     */
+    private static final class GroupKey {
+        final Field[] values;
+        private final byte[] key;
+        private final int hash;
+
+        GroupKey(Field[] values, byte[] key) {
+            this.values = values;
+            this.key = key;
+            this.hash = key != null ? Arrays.hashCode(key) : Arrays.hashCode(values);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey))
+                return false;
+            GroupKey k = (GroupKey) o;
+            return key != null ? Arrays.equals(key, k.key) : Arrays.equals(values, k.values);
+        }
+    }
+}
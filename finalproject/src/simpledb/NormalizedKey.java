@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Encodes the sort fields of a tuple into a normalized key: a byte array
+ * whose unsigned lexicographic order is the order TupleComparator gives
+ * the tuples.  Comparing two tuples is then a single loop over two byte
+ * arrays, with no virtual calls or String comparisons, and the leading
+ * bytes of a key can be compared as one long.
+ * <p>
+ * Each field is encoded in turn:
+ * <ul>
+ * <li>an int as 4 big-endian bytes with the sign bit flipped, so that
+ *   negative values sort first;
+ * <li>a string as each char in UTF-8 form (a char at a time, so that
+ *   chars compare as String.compareTo does), with a 0 char escaped as
+ *   0x00 0x01, followed by 0x00 0x00, so a string sorts before any
+ *   string it is a prefix of.
+ * </ul>
+ * The bytes of a descending field are inverted.
+ */
+public class NormalizedKey {
+
+    /** Whether OrderBy and grouping use normalized keys unless told otherwise. */
+    public static final boolean DEFAULT_ENABLED = Boolean.getBoolean("simpledb.NormalizedKeys");
+
+    private final int[] fields;
+    private final Type[] types;
+    private final boolean[] asc;
+
+    /**
+     * @param td the schema of the tuples encoded
+     * @param fields the sort fields, most significant first
+     * @param asc whether each field sorts ascending
+     */
+    public NormalizedKey(TupleDesc td, int[] fields, boolean[] asc) {
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            types[i] = td.getType(fields[i]);
+    }
+
+    /**
+     * A key over values given directly; see {@link #encode(Field[])}.
+     *
+     * @param types the type of each value, most significant first
+     * @param asc whether each value sorts ascending
+     */
+    public NormalizedKey(Type[] types, boolean[] asc) {
+        this.types = types.clone();
+        this.asc = asc.clone();
+        this.fields = new int[types.length];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = i;
+    }
+
+    /** @return the normalized key of the sort fields of t */
+    public byte[] encode(Tuple t) {
+        Field[] values = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            values[i] = t.getField(fields[i]);
+        return encode(values);
+    }
+
+    /** @return the normalized key of values, one per sort field, in order */
+    public byte[] encode(Field[] values) {
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (types[i] == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                String s = ((StringField) values[i]).getValue();
+                size += 2;
+                for (int j = 0; j < s.length(); j++) {
+                    char c = s.charAt(j);
+                    size += c == 0 ? 2 : c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                }
+            }
+        }
+
+        byte[] key = new byte[size];
+        int pos = 0;
+        for (int i = 0; i < values.length; i++) {
+            int start = pos;
+            if (types[i] == Type.INT_TYPE) {
+                int v = ((IntField) values[i]).getValue() ^ Integer.MIN_VALUE;
+                key[pos++] = (byte) (v >>> 24);
+                key[pos++] = (byte) (v >>> 16);
+                key[pos++] = (byte) (v >>> 8);
+                key[pos++] = (byte) v;
+            } else {
+                String s = ((StringField) values[i]).getValue();
+                for (int j = 0; j < s.length(); j++) {
+                    char c = s.charAt(j);
+                    if (c == 0) {
+                        key[pos++] = 0;
+                        key[pos++] = 1;
+                    } else if (c < 0x80) {
+                        key[pos++] = (byte) c;
+                    } else if (c < 0x800) {
+                        key[pos++] = (byte) (0xC0 | (c >> 6));
+                        key[pos++] = (byte) (0x80 | (c & 0x3F));
+                    } else {
+                        key[pos++] = (byte) (0xE0 | (c >> 12));
+                        key[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        key[pos++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+                // the terminator; key is already zeroed
+                pos += 2;
+            }
+            if (!asc[i]) {
+                for (int j = start; j < pos; j++)
+                    key[j] = (byte) ~key[j];
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as key a sorts
+     *   before, with or after key b
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    /**
+     * @return the first 8 bytes of key as a long, zero padded, for a
+     *   comparison (with Long.compareUnsigned) that decides most pairs of
+     *   keys without looking at the rest of them
+     */
+    public static long prefix(byte[] key) {
+        long p = 0;
+        int n = Math.min(8, key.length);
+        for (int i = 0; i < n; i++)
+            p |= (key[i] & 0xFFL) << (56 - 8 * i);
+        return p;
+    }
+}
@@ -1,16 +1,57 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields, each ascending or descending.
+ * <p>
+ * Input that fits in the memory budget is sorted in memory.  Larger input
+ * is sorted externally: each budget's worth of tuples is sorted and
+ * written to a SpillFile as a run, runs are merged a fan-in at a time
+ * until few enough remain to merge at once, and the final merge is
+ * streamed to the caller.  The fan-in is the number of pages that fit in
+ * the budget, since each run being merged holds one page in memory.
+ * <p>
+ * Sorts of at least the parallel threshold's worth of tuples, whether of
+ * the whole input or of a run, use Arrays.parallelSort, and a merge pass
+ * over that many tuples merges its groups of runs as parallel tasks.
+ * Both run on the ForkJoinPool of the calling thread, or the common pool.
+ * With only one worker in that pool there is nothing to gain from
+ * splitting the work, so the sort and merge are then done sequentially.
+ * <p>
+ * With normalized keys enabled, sorts in memory encode each tuple's sort
+ * fields once into a NormalizedKey and compare those bytes instead.
  */
-public class OrderBy extends AbstractDbIterator {
+public class OrderBy extends AbstractDbIterator implements Ordered {
+    /** Default memory budget, in bytes, for the tuples sorted in memory. */
+    public static final long DEFAULT_MEMORY_BYTES =
+        Long.getLong("simpledb.SortMemoryBytes", 16L << 20);
+    /** Default number of tuples from which sorts and merges run in parallel. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD =
+        Integer.getInteger("simpledb.ParallelSortThreshold", 1 << 16);
+    // estimated heap cost of a tuple beyond its field bytes
+    private static final int TUPLE_OVERHEAD = 64;
+
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     int orderByField;
     Iterator<Tuple> it;
     boolean asc;
+    // every sort key, most significant (orderByField) first
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+
+    private long memoryBytes = DEFAULT_MEMORY_BYTES;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private boolean normalizedKeys = NormalizedKey.DEFAULT_ENABLED;
+    // the sorted runs on disk, if the input did not fit in memory
+    private final List<SpillFile> runs = new ArrayList<SpillFile>();
+    private DbIterator merged;
+    private int runCount = 0;
+    private int mergePasses = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +61,269 @@ public class OrderBy extends AbstractDbIterator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields the fields to which the sort is applied, most
+     *   significant first.
+     * @param asc true for each field that sorts ascending.
+     * @param child the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need a direction for each sort field");
         this.child = child;
         td= child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.orderByField = orderbyFields[0];
+        this.asc = asc[0];
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    public boolean isSortedOn(int field, boolean asc) {
+        return field == orderByField && asc == this.asc;
+    }
+
+    /**
+     * Set the approximate number of bytes of tuples to sort in memory;
+     * larger input is sorted in runs on disk.  Takes effect on the next
+     * open().
+     */
+    public void setMemoryBytes(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Set the number of tuples from which a sort, or a pass merging runs,
+     * runs in parallel; Integer.MAX_VALUE keeps it on the calling thread.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Set whether sorts in memory compare the tuples' normalized keys (see
+     * NormalizedKey) rather than their fields.  Takes effect on the next
+     * open().
+     */
+    public void setNormalizedKeys(boolean normalizedKeys) {
+        this.normalizedKeys = normalizedKeys;
+    }
+
+    /** @return the number of sorted runs written to disk by the last open() */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return the number of merge passes over the runs made by the last
+     *   open(), counting the final merge; 0 if it sorted in memory
+     */
+    public int getMergePasses() {
+        return mergePasses;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        release();
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        Comparator<Tuple> cmp = new TupleComparator(td, orderByFields, ascs);
+        long tupleBytes = td.getSize() + TUPLE_OVERHEAD;
+        long bytes = 0;
+        //load tuples into a collection until it outgrows the budget, then sort it out to a run
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            bytes += tupleBytes;
+            if (bytes > memoryBytes) {
+                writeRun(cmp);
+                bytes = 0;
+            }
+        }
+        if (runs.isEmpty()) {
+            sort(cmp);
+            it = childTups.iterator();
+            return;
+        }
+        if (!childTups.isEmpty())
+            writeRun(cmp);
+        runCount = runs.size();
+
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBytes / BufferPool.PAGE_SIZE));
+        while (runs.size() > fanIn)
+            mergePass(cmp, fanIn);
+        merged = new Merge(td, runs, cmp);
+        merged.open();
+        mergePasses++;
     }
 
-    public void close() {
+    /** Sort the tuples in memory, in parallel if there are enough of them. */
+    private void sort(Comparator<Tuple> cmp) {
+        boolean parallel = childTups.size() >= parallelThreshold && parallelPool();
+        if (normalizedKeys) {
+            sortByKey(parallel);
+            return;
+        }
+        if (!parallel) {
+            Collections.sort(childTups, cmp);
+            return;
+        }
+        Tuple[] sorted = childTups.toArray(new Tuple[childTups.size()]);
+        Arrays.parallelSort(sorted, cmp);
+        for (int i = 0; i < sorted.length; i++)
+            childTups.set(i, sorted[i]);
+    }
+
+    /** A tuple with its normalized key, and the key's leading bytes. */
+    private static class KeyedTuple {
+        final long prefix;
+        final byte[] key;
+        final Tuple t;
+        KeyedTuple(byte[] key, Tuple t) {
+            this.prefix = NormalizedKey.prefix(key);
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    private static final Comparator<KeyedTuple> BY_KEY = new Comparator<KeyedTuple>() {
+        public int compare(KeyedTuple a, KeyedTuple b) {
+            int c = Long.compareUnsigned(a.prefix, b.prefix);
+            return c != 0 ? c : NormalizedKey.compare(a.key, b.key);
+        }
+    };
+
+    /** Sort the tuples by their normalized keys. */
+    private void sortByKey(boolean parallel) {
+        NormalizedKey nk = new NormalizedKey(td, orderByFields, ascs);
+        KeyedTuple[] sorted = new KeyedTuple[childTups.size()];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = new KeyedTuple(nk.encode(childTups.get(i)), childTups.get(i));
+        if (parallel)
+            Arrays.parallelSort(sorted, BY_KEY);
+        else
+            Arrays.sort(sorted, BY_KEY);
+        for (int i = 0; i < sorted.length; i++)
+            childTups.set(i, sorted[i].t);
+    }
+
+    /** Sort the tuples in memory and write them out as a new run. */
+    private void writeRun(Comparator<Tuple> cmp) throws DbException {
+        sort(cmp);
+        try {
+            SpillFile run = new SpillFile(td);
+            runs.add(run);
+            for (Tuple t : childTups)
+                run.add(t);
+        } catch (IOException e) {
+            throw new DbException("Error writing sort run: " + e.getMessage());
+        }
+        childTups.clear();
+    }
+
+    /**
+     * Merge the runs fanIn at a time, replacing them with the merged runs.
+     * The groups are merged as parallel tasks if the pass covers at least
+     * the parallel threshold's worth of tuples.
+     */
+    private void mergePass(final Comparator<Tuple> cmp, int fanIn)
+        throws DbException, TransactionAbortedException {
+        List<ForkJoinTask<SpillFile>> merges = new ArrayList<ForkJoinTask<SpillFile>>();
+        long tuples = 0;
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            final List<SpillFile> group =
+                new ArrayList<SpillFile>(runs.subList(i, Math.min(i + fanIn, runs.size())));
+            for (SpillFile f : group)
+                tuples += f.numTuples();
+            merges.add(ForkJoinTask.adapt(new Callable<SpillFile>() {
+                public SpillFile call() throws DbException, TransactionAbortedException {
+                    return group.size() == 1 ? group.get(0) : mergeRuns(group, cmp);
+                }
+            }));
+        }
+        try {
+            if (tuples >= parallelThreshold && parallelPool()) {
+                ForkJoinTask.invokeAll(merges);
+            } else {
+                for (ForkJoinTask<SpillFile> m : merges)
+                    m.invoke();
+            }
+        } catch (RuntimeException e) {
+            // a task's checked exception comes back wrapped, maybe more than once
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof DbException)
+                    throw (DbException) cause;
+                if (cause instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) cause;
+            }
+            throw e;
+        }
+        // keep the merged runs in order, so the sort stays stable
+        runs.clear();
+        for (ForkJoinTask<SpillFile> m : merges)
+            runs.add(m.join());
+        mergePasses++;
+    }
+
+    /** @return whether the pool parallel work would run in has several workers */
+    private static boolean parallelPool() {
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool()
+            : ForkJoinPool.commonPool();
+        return pool.getParallelism() > 1;
+    }
+
+    /** @return a new run of the runs merged; the runs are deleted */
+    private SpillFile mergeRuns(List<SpillFile> group, Comparator<Tuple> cmp)
+        throws DbException, TransactionAbortedException {
+        DbIterator m = new Merge(td, group, cmp);
+        SpillFile out;
+        try {
+            out = new SpillFile(td);
+            m.open();
+            while (m.hasNext())
+                out.add(m.next());
+        } catch (IOException e) {
+            throw new DbException("Error writing sort run: " + e.getMessage());
+        } finally {
+            m.close();
+        }
+        for (SpillFile f : group)
+            f.delete();
+        return out;
+    }
+
+    /** Forget the tuples and runs of the last open(). */
+    private void release() {
+        if (merged != null)
+            merged.close();
+        merged = null;
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        childTups.clear();
         it = null;
+        runCount = 0;
+        mergePasses = 0;
+    }
+
+    public void close() {
+        super.close();
+        release();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        super.close();
+        if (merged != null)
+            merged.rewind();
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -56,37 +334,82 @@ public class OrderBy extends AbstractDbIterator {
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (merged != null)
+            return merged.hasNext() ? merged.next() : null;
         if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
     }
-}
 
- class TupleComparator implements Comparator<Tuple> {
-     int field;
-     boolean asc;
-
-     public TupleComparator(int field, boolean asc) {
-         this.field = field;
-     this.asc = asc;
-     }
-
-     public int compare(Tuple o1, Tuple o2) {
-         Field t1 = (o1).getField(field);
-         Field t2 = (o2).getField(field);
-         if (t1.compare(Predicate.Op.EQUALS, t2))
-             return 0;
-         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-             return asc?1:-1;
-         else
-             return asc?-1:1;
-     }
-
-     boolean equals(TupleComparator o) {
-         if (o instanceof TupleComparator && ((TupleComparator)o).field == field )
-             return true;
-         return false;
-
-     }
+    /**
+     * A k-way merge of sorted runs.  Tuples that compare equal come out in
+     * the order of their runs, so the merge is stable.
+     */
+    private static class Merge extends AbstractDbIterator {
+        private final TupleDesc td;
+        private final DbIterator[] inputs;
+        private final Comparator<Tuple> cmp;
+        private PriorityQueue<Head> heads;
+
+        /** The next tuple of an input. */
+        private static class Head {
+            Tuple t;
+            final int input;
+            Head(Tuple t, int input) {
+                this.t = t;
+                this.input = input;
+            }
+        }
+
+        Merge(TupleDesc td, List<SpillFile> runs, Comparator<Tuple> cmp) {
+            this.td = td;
+            this.inputs = new DbIterator[runs.size()];
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = runs.get(i).iterator();
+            this.cmp = cmp;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            heads = new PriorityQueue<Head>(Math.max(1, inputs.length), new Comparator<Head>() {
+                public int compare(Head a, Head b) {
+                    int c = cmp.compare(a.t, b.t);
+                    return c != 0 ? c : a.input - b.input;
+                }
+            });
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i].open();
+                if (inputs[i].hasNext())
+                    heads.add(new Head(inputs[i].next(), i));
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (heads == null || heads.isEmpty())
+                return null;
+            Head h = heads.poll();
+            Tuple t = h.t;
+            if (inputs[h.input].hasNext()) {
+                h.t = inputs[h.input].next();
+                heads.add(h);
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            for (DbIterator in : inputs)
+                in.close();
+            heads = null;
+        }
+    }
 }
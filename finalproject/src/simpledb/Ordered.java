@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * Ordered is implemented by operators that know the order of the tuples
+ * they return, so that a plan can skip sorting an input that is already
+ * sorted.
+ */
+public interface Ordered {
+    /**
+     * @param field the index of a field of this operator's TupleDesc
+     * @param asc true for ascending order, false for descending
+     * @return true if tuples are returned sorted on field in that order
+     */
+    public boolean isSortedOn(int field, boolean asc);
+}
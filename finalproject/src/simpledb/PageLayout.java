@@ -0,0 +1,81 @@
+package simpledb;
+
+/**
+ * PageLayout holds the sizes that describe how tuples of one schema are laid
+ * out on a HeapPage: the tuple size, the number of tuple slots, the size of
+ * the slot bitmap header, and the size of the whole page on disk.
+ * <p>
+ * These depend only on the TupleDesc and BufferPool.PAGE_SIZE, so a HeapFile
+ * computes its layout once instead of on every page access.
+ *
+ * @see HeapPage#HeapPage
+ */
+public class PageLayout {
+    private final TupleDesc td;
+    private final int tupleSize;
+    private final int numSlots;
+    private final int headerInts;
+    private final int bytesPerPage;
+    private final int[] fieldOffsets;
+
+    /**
+     * Compute the layout of pages holding tuples of the given schema.
+     */
+    public PageLayout(TupleDesc td) {
+        this.td = td;
+        this.tupleSize = td.getSize();
+        this.numSlots = BufferPool.PAGE_SIZE / tupleSize;
+        this.headerInts = (numSlots / 32) + 1;
+        this.bytesPerPage = headerInts * 4 + BufferPool.PAGE_SIZE;
+        this.fieldOffsets = new int[td.numFields()];
+        int off = 0;
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            fieldOffsets[i] = off;
+            off += td.getType(i).getLen();
+        }
+    }
+
+    /** @return the schema of the tuples on the page */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the size of one tuple, in bytes */
+    public int getTupleSize() {
+        return tupleSize;
+    }
+
+    /** @return the number of tuple slots on a page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** @return the number of 32-bit words in the slot bitmap header */
+    public int getHeaderInts() {
+        return headerInts;
+    }
+
+    /** @return the size of a page on disk, header included, in bytes */
+    public int getBytesPerPage() {
+        return bytesPerPage;
+    }
+
+    /** @return the offset of tuple slot i from the start of the page */
+    public int getTupleOffset(int slot) {
+        return headerInts * 4 + slot * tupleSize;
+    }
+
+    /**
+     * @return the offset from the start of the page of the minipage holding
+     *   field i of every slot, when the page is laid out by column
+     * @see PaxPage
+     */
+    public int getColumnOffset(int i) {
+        return headerInts * 4 + numSlots * fieldOffsets[i];
+    }
+
+    /** @return the offset of field i from the start of a tuple */
+    public int getFieldOffset(int i) {
+        return fieldOffsets[i];
+    }
+}
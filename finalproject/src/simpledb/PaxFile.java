@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxFile is a HeapFile whose pages are laid out by column, as described
+ * in PaxPage.  It is added to the Catalog like any other DbFile, and read
+ * through the same BufferPool, iterators and operators as a HeapFile.  Use
+ * {@link HeapFile#iterator(TransactionId, int[])} to scan just the fields
+ * a query needs.
+ * <p>
+ * PaxFiles are written with {@link HeapFileEncoder#convertPax}.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the on-disk backing store for this DbFile.
+     */
+    public PaxFile(File f) {
+        super(f);
+    }
+
+    HeapPage newPage(HeapPageId pid, ByteBuffer data, PageLayout layout) throws IOException {
+        return new PaxPage(pid, data, layout);
+    }
+}
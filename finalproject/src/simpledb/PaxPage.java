@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxPage is a HeapPage whose tuples are stored by column (the PAX layout).
+ * The page has the same slot bitmap header and the same number of slots as
+ * a HeapPage of the same schema, but the data area is split into one
+ * minipage per field: minipage j holds field j of slot 0, then of slot 1,
+ * and so on, each at that field's fixed width.  Minipages follow each other
+ * in field order, with the unused bytes of the page at the end.
+ * <p>
+ * A scan that reads a few fields of each tuple therefore touches only
+ * those fields' minipages.
+ *
+ * @see PaxFile
+ * @see PageLayout#getColumnOffset
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data),
+             new PageLayout(Database.getCatalog().getTupleDesc(id.tableid())));
+    }
+
+    /**
+     * Create a PaxPage from a buffer, using a layout the caller has already
+     * computed for the page's table.
+     */
+    PaxPage(HeapPageId id, ByteBuffer data, PageLayout layout) throws IOException {
+        super(id, data, layout);
+    }
+
+    int fieldOffset(int i, int j) {
+        return layout.getColumnOffset(j) + i * td.getType(j).getLen();
+    }
+
+    /**
+     * Rearrange a page in HeapPage (row) layout into PAX layout.
+     *
+     * @param rowPage the bytes of the page in row layout
+     * @param npagebytes the size of the page, excluding the header
+     * @param typeAr the types of the fields of the page's tuples
+     * @return the bytes of the same page in PAX layout
+     */
+    public static byte[] fromRowPage(byte[] rowPage, int npagebytes, Type[] typeAr) {
+        int recbytes = 0;
+        for (Type t : typeAr)
+            recbytes += t.getLen();
+        int nrecords = npagebytes / recbytes;
+        int headerbytes = ((nrecords / 32) + 1) * 4;
+
+        byte[] out = new byte[rowPage.length];
+        System.arraycopy(rowPage, 0, out, 0, headerbytes);
+        int rowoff = 0;       // offset of the field within a row
+        int coloff = headerbytes;  // offset of the field's minipage
+        for (Type t : typeAr) {
+            int len = t.getLen();
+            for (int i = 0; i < nrecords; i++)
+                System.arraycopy(rowPage, headerbytes + i * recbytes + rowoff,
+                                 out, coloff + i * len, len);
+            rowoff += len;
+            coloff += nrecords * len;
+        }
+        return out;
+    }
+}
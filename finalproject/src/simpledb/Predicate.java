@@ -75,6 +75,91 @@ public class Predicate {
         return f.compare(op, operand);
     }
 
+    /**
+     * Narrow the selection of batch to the rows that satisfy the predicate.
+     * An int comparison is a test of whether the value lies in a range,
+     * so the rows of an IntField column are tested in one branch-light loop.
+     */
+    public void filter(TupleBatch batch) {
+        int n = batch.numRows();
+        int[] out = batch.selectionBuffer();
+        int k = 0;
+        if (operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            long lo = lowerBound(op, v);
+            long hi = upperBound(op, v);
+            int[] col = batch.getInts(field);
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] >= lo && col[r] <= hi)
+                    out[k++] = r;
+            }
+        } else {
+            String v = ((StringField) operand).getValue();
+            String[] col = batch.getStrings(field);
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (matches(op, col[r], v))
+                    out[k++] = r;
+            }
+        }
+        batch.select(k);
+    }
+
+    /**
+     * @return the least int x for which x op v holds; with upperBound, the
+     *   ints x op v holds for are the range between the two, which is empty
+     *   if the bounds cross
+     */
+    static long lowerBound(Op op, int v) {
+        switch (op) {
+        case GREATER_THAN:
+            return (long) v + 1;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return Integer.MIN_VALUE;
+        default:
+            return v;
+        }
+    }
+
+    /**
+     * @return the greatest int x for which x op v holds
+     * @see #lowerBound
+     */
+    static long upperBound(Op op, int v) {
+        switch (op) {
+        case LESS_THAN:
+            return (long) v - 1;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return Integer.MAX_VALUE;
+        default:
+            return v;
+        }
+    }
+
+    /** @return whether s op v holds, as StringField.compare decides it */
+    static boolean matches(Op op, String s, String v) {
+        if (op == Op.LIKE)
+            return s.indexOf(v) >= 0;
+        int c = s.compareTo(v);
+        switch (op) {
+        case EQUALS:
+            return c == 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        default:
+            return false;
+        }
+    }
+
     /**
      * Returns something useful, like
      * "f = field_id op = op_string operand = operand_string
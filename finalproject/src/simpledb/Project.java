@@ -4,10 +4,12 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends AbstractDbIterator {
+public class Project extends AbstractDbIterator implements BatchIterator {
     DbIterator child;
+    BatchIterator batchChild;
     TupleDesc td;
     ArrayList<Integer> outFieldIds;
+    int[] outFields;
 
     /**
      * Constructor accepts a child
@@ -20,7 +22,11 @@ public class Project extends AbstractDbIterator {
      */
     public Project(ArrayList<Integer> fieldList, ArrayList<Type> typesList,  DbIterator child) {
         this.child = child;
+        batchChild = BatchingIterator.of(child);
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
         td= new TupleDesc(typesList.toArray(new Type[0]));
     }
 
@@ -58,4 +64,14 @@ public class Project extends AbstractDbIterator {
         }
         return null;
     }
+
+    /**
+     * BatchIterator.nextBatch implementation.
+     * Returns a view of the child's next batch holding just the projected
+     * columns, which shares the child's column arrays instead of copying.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = batchChild.nextBatch();
+        return batch == null ? null : batch.project(td, outFields);
+    }
 }
@@ -6,13 +6,17 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     // Instance variables to store scan parameters
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    // the table fields this scan returns, or null for all of them
+    private int[] fields;
+    // the batch nextBatch fills, reused from call to call
+    private TupleBatch batch;
 
     /**
      * Constructor.
@@ -35,6 +39,41 @@ public class SeqScan implements DbIterator {
         this.dbFileIterator = null;
     }
 
+    /**
+     * Constructor.
+     * Creates a sequential scan that returns only some fields of each tuple;
+     * the underlying file decodes just those fields.  The table must be a
+     * HeapFile (or PaxFile).
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param fields the fields of the table to return, in order
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias);
+        this.fields = fields;
+    }
+
+    /**
+     * @return the number of pages in the scanned table if it is a HeapFile,
+     *   which can be scanned in page ranges, else -1
+     */
+    int numPages() {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableid);
+        return dbFile instanceof HeapFile ? ((HeapFile) dbFile).numPages() : -1;
+    }
+
+    /**
+     * @return an iterator over the tuples this scan returns that lie on pages
+     *   startPage (inclusive) to endPage (exclusive); the table must be a
+     *   HeapFile
+     */
+    DbFileIterator iterator(int startPage, int endPage) {
+        HeapFile f = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        return f.iterator(tid, fields, startPage, endPage);
+    }
+
     /**
      * Opens this sequential scan.
      * Needs to be called before getNext().
@@ -46,7 +85,13 @@ public class SeqScan implements DbIterator {
         DbFile dbFile = Database.getCatalog().getDbFile(tableid);
         
         // Get the iterator for this file
-        dbFileIterator = dbFile.iterator(tid);
+        if (fields == null) {
+            dbFileIterator = dbFile.iterator(tid);
+        } else if (dbFile instanceof HeapFile) {
+            dbFileIterator = ((HeapFile) dbFile).iterator(tid, fields);
+        } else {
+            throw new DbException("Table " + tableid + " does not support projected scans");
+        }
         
         // Open the iterator
         dbFileIterator.open();
@@ -62,14 +107,16 @@ public class SeqScan implements DbIterator {
         // Get the original TupleDesc from the catalog
         TupleDesc originalTd = Database.getCatalog().getTupleDesc(tableid);
         
+        int n = fields == null ? originalTd.numFields() : fields.length;
         // Create arrays for the new field names and types
-        Type[] types = new Type[originalTd.numFields()];
-        String[] fieldNames = new String[originalTd.numFields()];
+        Type[] types = new Type[n];
+        String[] fieldNames = new String[n];
         
         // Copy types and create new field names with table alias prefix
-        for (int i = 0; i < originalTd.numFields(); i++) {
-            types[i] = originalTd.getType(i);
-            String originalName = originalTd.getFieldName(i);
+        for (int i = 0; i < n; i++) {
+            int f = fields == null ? i : fields[i];
+            types[i] = originalTd.getType(f);
+            String originalName = originalTd.getFieldName(f);
             
             // Create new field name as tableAlias.fieldName
             if (tableAlias != null && originalName != null) {
@@ -113,6 +160,27 @@ public class SeqScan implements DbIterator {
         return dbFileIterator.next();
     }
 
+    /**
+     * Implementation of BatchIterator.nextBatch method.
+     * Return the next TupleBatch.MAX_ROWS tuples of the scan, or fewer at
+     * the end of the table, or null if there are no more tuples.
+     */
+    public TupleBatch nextBatch()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (dbFileIterator == null) {
+            throw new NoSuchElementException("SeqScan not opened");
+        }
+
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && dbFileIterator.hasNext()) {
+            batch.add(dbFileIterator.next());
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
     /**
      * Closes the sequential scan.
      */
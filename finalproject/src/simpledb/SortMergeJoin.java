@@ -0,0 +1,216 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs sorted ascending on their join
+ * fields.  An input that is not already known to be sorted (see
+ * {@link Ordered}) is wrapped in an OrderBy.
+ * <p>
+ * For an equality predicate the inputs are merged in step: the run of right
+ * tuples sharing a key is buffered and joined with every left tuple that
+ * has that key, so duplicate keys on both sides are handled.  For &lt;,
+ * &lt;=, &gt; and &gt;= the sorted right input is held in memory and each
+ * left tuple matches a prefix or suffix of it whose boundary only moves
+ * forward as the left keys grow.
+ * <p>
+ * Tuples are returned in ascending order of the left join field (and, for
+ * an equality join, of the right join field too), so an ORDER BY on the
+ * join column needs no further sort.
+ */
+public class SortMergeJoin extends AbstractDbIterator implements Ordered {
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc mergedTd;
+    private final int leftFields;
+
+    // the right tuples the current left tuple is matched against: the
+    // current run for an equality join, else the whole right input
+    private ArrayList<Tuple> rights = new ArrayList<Tuple>();
+    private Field runKey;
+    private Tuple nextRight;
+    private int boundary;
+
+    private Tuple currentLeft;
+    // the range of rights matching currentLeft not yet returned
+    private int idx;
+    private int end;
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on
+     *
+     * @param p The predicate to use to join the children; its operator may
+     *   not be Predicate.Op.LIKE
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("SortMergeJoin can not merge on LIKE");
+        this.p = p;
+        this.child1 = sorted(child1, p.getField1());
+        this.child2 = sorted(child2, p.getField2());
+        this.mergedTd = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.leftFields = child1.getTupleDesc().numFields();
+    }
+
+    /** @return it, or it sorted ascending on field if it might not be */
+    private static DbIterator sorted(DbIterator it, int field) {
+        if (it instanceof Ordered && ((Ordered) it).isSortedOn(field, true))
+            return it;
+        return new OrderBy(field, true, it);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        rights.clear();
+        nextRight = null;
+        currentLeft = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /**
+     * Returns the TupleDesc for this operator, combining the TupleDescs of its
+     * two children.
+     *
+     * @return the TupleDesc that combines the two TupleDescs of the children.
+     */
+    public TupleDesc getTupleDesc() {
+        return mergedTd;
+    }
+
+    public boolean isSortedOn(int field, boolean asc) {
+        if (!asc)
+            return false;
+        if (field == p.getField1())
+            return true;
+        return p.getOperator() == Predicate.Op.EQUALS
+            && field == child1.getTupleDesc().numFields() + p.getField2();
+    }
+
+    /**
+     * Operator.fetchNext implementation.  Returns the next matching tuple,
+     * the concatenation of the joining left and right tuples, or null if
+     * there are no more matching tuples.
+     *
+     * @see Join#readNext
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (currentLeft == null || idx == end) {
+            if (!child1.hasNext())
+                return null;
+            currentLeft = child1.next();
+            Field key = currentLeft.getField(p.getField1());
+            switch (p.getOperator()) {
+            case EQUALS:
+                advanceRun(key);
+                idx = 0;
+                end = runKey != null && compare(runKey, key) == 0 ? rights.size() : 0;
+                break;
+            case GREATER_THAN:
+                // left > right: the rights before the first one >= key
+                advanceBoundary(key, false);
+                idx = 0;
+                end = boundary;
+                break;
+            case GREATER_THAN_OR_EQ:
+                advanceBoundary(key, true);
+                idx = 0;
+                end = boundary;
+                break;
+            case LESS_THAN:
+                // left < right: the rights from the first one > key
+                advanceBoundary(key, true);
+                idx = boundary;
+                end = rights.size();
+                break;
+            case LESS_THAN_OR_EQ:
+                advanceBoundary(key, false);
+                idx = boundary;
+                end = rights.size();
+                break;
+            default:
+                throw new DbException("Unsupported join operator " + p.getOperator());
+            }
+        }
+        return merge(currentLeft, rights.get(idx++));
+    }
+
+    /** Reset the merge to the start of both inputs. */
+    private void start() throws DbException, TransactionAbortedException {
+        rights.clear();
+        runKey = null;
+        boundary = 0;
+        currentLeft = null;
+        idx = end = 0;
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            nextRight = readRight();
+        } else {
+            while (child2.hasNext())
+                rights.add(child2.next());
+        }
+    }
+
+    /**
+     * Make rights the run of right tuples with the given key, if there is
+     * one.  Keys never decrease between calls.
+     */
+    private void advanceRun(Field key) throws DbException, TransactionAbortedException {
+        if (runKey != null && compare(runKey, key) >= 0)
+            return;
+        rights.clear();
+        runKey = null;
+        while (nextRight != null && compare(nextRight.getField(p.getField2()), key) < 0)
+            nextRight = readRight();
+        if (nextRight == null || compare(nextRight.getField(p.getField2()), key) != 0)
+            return;
+        runKey = key;
+        while (nextRight != null && compare(nextRight.getField(p.getField2()), key) == 0) {
+            rights.add(nextRight);
+            nextRight = readRight();
+        }
+    }
+
+    /**
+     * Move boundary past the rights less than key, or, if inclusive, less
+     * than or equal to key.
+     */
+    private void advanceBoundary(Field key, boolean inclusive) {
+        while (boundary < rights.size()) {
+            int c = compare(rights.get(boundary).getField(p.getField2()), key);
+            if (c > 0 || (c == 0 && !inclusive))
+                break;
+            boundary++;
+        }
+    }
+
+    private Tuple readRight() throws DbException, TransactionAbortedException {
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        return new JoinedTuple(mergedTd, left, right, leftFields);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write when their
+ * working state does not fit in memory.  Tuples are appended in HeapPage
+ * format, a page at a time, and read back in the order they were added.
+ * <p>
+ * A spill file is private to the operator that made it: it is not in the
+ * Catalog and its pages bypass the BufferPool.  The file is removed by
+ * {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+    private final TupleDesc td;
+    private final PageLayout layout;
+    private final File file;
+    private final FileChannel channel;
+    private final int id;
+
+    // the page being filled, and how many slots of it are used
+    private final byte[] page;
+    private final ByteBuffer pageBuf;
+    private int used = 0;
+    private int numPages = 0;
+    private long numTuples = 0;
+
+    /**
+     * Create an empty spill file for tuples with the given schema.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.layout = new PageLayout(td);
+        this.file = File.createTempFile("spill", ".dat");
+        this.file.deleteOnExit();
+        this.channel = FileChannel.open(file.toPath(),
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.id = file.getAbsoluteFile().hashCode();
+        this.page = new byte[layout.getBytesPerPage()];
+        this.pageBuf = ByteBuffer.wrap(page);
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Append a tuple to the file. */
+    public void add(Tuple t) throws IOException {
+        if (used == layout.getNumSlots())
+            flush();
+        // set the slot's header bit, then write its fields in place
+        int word = pageBuf.getInt((used / 32) * 4);
+        pageBuf.putInt((used / 32) * 4, word | (1 << (used % 32)));
+        pageBuf.position(layout.getTupleOffset(used));
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(pageBuf);
+        used++;
+        numTuples++;
+    }
+
+    /** @return the number of tuples added to the file */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes written to disk so far */
+    public long getBytesWritten() {
+        return (long) numPages * page.length;
+    }
+
+    /**
+     * @return an iterator over the tuples in this file.  Tuples added after
+     *   the iterator is opened (or rewound) are not seen by it.
+     */
+    public DbIterator iterator() {
+        return new AbstractDbIterator() {
+            private int pageNo = -1;
+            private int lastPage;
+            private Iterator<Tuple> tuples = null;
+
+            public void open() throws DbException {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new DbException("Error writing spill file: " + e.getMessage());
+                }
+                lastPage = numPages;
+                pageNo = 0;
+                tuples = null;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            protected Tuple readNext() throws DbException {
+                if (pageNo < 0)
+                    return null;
+                while (tuples == null || !tuples.hasNext()) {
+                    if (pageNo >= lastPage)
+                        return null;
+                    tuples = readPage(pageNo++).iterator();
+                }
+                return tuples.next();
+            }
+
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                pageNo = -1;
+                tuples = null;
+            }
+        };
+    }
+
+    /** Close and remove the file. */
+    public void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+        file.delete();
+    }
+
+    /** Write out the partly filled page, if any. */
+    private void flush() throws IOException {
+        if (used == 0)
+            return;
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        long offset = (long) numPages * page.length;
+        while (buf.hasRemaining())
+            channel.write(buf, offset + buf.position());
+        numPages++;
+        Arrays.fill(page, (byte) 0);
+        used = 0;
+    }
+
+    private HeapPage readPage(int pageNo) throws DbException {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(page.length);
+            long offset = (long) pageNo * page.length;
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0)
+                    throw new EOFException();
+            }
+            buf.flip();
+            return new HeapPage(new HeapPageId(id, pageNo), buf, layout);
+        } catch (IOException e) {
+            throw new DbException("Error reading spill file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * An Aggregator that computes a grouped aggregate within a memory budget.
+ * Groups are split into partitions by a hash of the group value, each
+ * aggregated by an IntAggregator or StringAggregator, or, for composite
+ * group values or several aggregates, a MultiAggregator.  When the groups held
+ * in memory outgrow the budget, the partition with the most groups writes
+ * its partial state (see Aggregator#partials) to that partition's
+ * SpillFile and starts again empty.
+ * <p>
+ * Results are produced a partition at a time: a partition that never
+ * spilled is returned as is, and one that did has its spilled partial
+ * states merged back together first.  That merge is done by a nested
+ * SpillingAggregator hashing with a different seed, so a partition too
+ * large for the budget is split again, up to MAX_DEPTH levels.  A merged
+ * partition is kept, so reading or rewinding the results again does not
+ * repeat the merge.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    /** Default memory budget, in bytes, for the groups held in memory. */
+    public static final long DEFAULT_MEMORY_BYTES =
+        Long.getLong("simpledb.AggregateMemoryBytes", 16L << 20);
+    /** Number of partitions the groups are split into at each level. */
+    public static final int PARTITIONS = 16;
+    /** Deepest level of repartitioning; below it partitions are merged in memory. */
+    public static final int MAX_DEPTH = 4;
+    // estimated heap cost of a group beyond its key bytes
+    private static final int GROUP_OVERHEAD = 64;
+
+    // the group-by fields, empty if there is no grouping
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] whats;
+    // whether groups are aggregated by a MultiAggregator
+    private final boolean multi;
+    private final long memoryBytes;
+    private final int depth;
+    private final int seed;
+    private final int groupBytes;
+
+    private final Aggregator[] parts = new Aggregator[PARTITIONS];
+    private final SpillFile[] spills = new SpillFile[PARTITIONS];
+    private long groups = 0;
+    private long spillBytes = 0;
+    private int spillCount = 0;
+    // nested aggregators made while merging spilled partitions
+    private final List<SpillingAggregator> nested = new ArrayList<SpillingAggregator>();
+    // per spilled partition, its partial states merged back together, once
+    // the results have reached it
+    private final Aggregator[] merged = new Aggregator[PARTITIONS];
+
+    /**
+     * Aggregate constructor
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param afieldtype the type of the aggregate field
+     * @param what the aggregation operator
+     * @param memoryBytes the approximate number of bytes of groups to hold in
+     *   memory before spilling partial states to disk
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype,
+                              Op what, long memoryBytes) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+             gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype },
+             new int[] { afield }, new Type[] { afieldtype }, new Op[] { what },
+             false, memoryBytes, 0);
+    }
+
+    /**
+     * Aggregate constructor for several aggregates over a composite group
+     * value, each partition aggregated by a MultiAggregator.
+     *
+     * @param memoryBytes the approximate number of bytes of groups to hold in
+     *   memory before spilling partial states to disk
+     * @see MultiAggregator#MultiAggregator
+     */
+    public SpillingAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+                              Type[] afieldtypes, Op[] whats, long memoryBytes) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, whats, true, memoryBytes, 0);
+    }
+
+    private SpillingAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+                               Type[] afieldtypes, Op[] whats, boolean multi,
+                               long memoryBytes, int depth) {
+        this.gbfields = gbfields;
+        this.gbfieldtypes = gbfieldtypes;
+        this.afields = afields;
+        this.afieldtypes = afieldtypes;
+        this.whats = whats;
+        this.multi = multi;
+        this.memoryBytes = memoryBytes;
+        this.depth = depth;
+        this.seed = 0x9E3779B9 * (depth + 1);
+        int bytes = GROUP_OVERHEAD + (multi ? 32 * afields.length : 0);
+        for (Type t : gbfieldtypes)
+            bytes += t.getLen();
+        this.groupBytes = bytes;
+        for (int i = 0; i < PARTITIONS; i++)
+            parts[i] = newAggregator();
+    }
+
+    public void merge(Tuple tup) {
+        int p = partition(tup, gbfields);
+        if (merged[p] != null)
+            forgetMerged(p);
+        int before = numGroups(parts[p]);
+        parts[p].merge(tup);
+        grew(p, before);
+    }
+
+    public void mergePartial(Tuple partial) {
+        int p = partition(partial, null);
+        if (merged[p] != null)
+            forgetMerged(p);
+        int before = numGroups(parts[p]);
+        parts[p].mergePartial(partial);
+        grew(p, before);
+    }
+
+    /**
+     * @return a DbIterator over group aggregate results, reading spilled
+     *   partitions back as it goes
+     */
+    public DbIterator iterator() {
+        if (gbfields.length == 0)
+            return parts[0].iterator();
+        return results(false);
+    }
+
+    public DbIterator partials() {
+        if (gbfields.length == 0)
+            return parts[0].partials();
+        return results(true);
+    }
+
+    /**
+     * @return the number of bytes written to spill files, including those
+     *   written while merging spilled partitions
+     */
+    public long getSpillBytes() {
+        long n = spillBytes;
+        for (SpillFile f : spills) {
+            if (f != null)
+                n += f.getBytesWritten();
+        }
+        for (SpillingAggregator a : nested)
+            n += a.getSpillBytes();
+        return n;
+    }
+
+    /** @return the number of times a partition has been spilled */
+    public int getSpillCount() {
+        int n = spillCount;
+        for (SpillingAggregator a : nested)
+            n += a.getSpillCount();
+        return n;
+    }
+
+    /** Delete this aggregator's spill files.  It may not be used afterwards. */
+    public void close() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (spills[i] != null) {
+                spillBytes += spills[i].getBytesWritten();
+                spills[i].delete();
+                spills[i] = null;
+            }
+        }
+        for (SpillingAggregator a : nested)
+            a.close();
+        Arrays.fill(merged, null);
+    }
+
+    /**
+     * Drop the merged state of partition p, which is out of date once more
+     * is merged into the partition, deleting its spill files.
+     */
+    private void forgetMerged(int p) {
+        if (merged[p] instanceof SpillingAggregator) {
+            SpillingAggregator sub = (SpillingAggregator) merged[p];
+            sub.close();
+            spillBytes += sub.getSpillBytes();
+            spillCount += sub.getSpillCount();
+            nested.remove(sub);
+        }
+        merged[p] = null;
+    }
+
+    private Aggregator newAggregator() {
+        if (multi)
+            return new MultiAggregator(gbfields, gbfieldtypes, afields, afieldtypes, whats);
+        int gbfield = gbfields.length == 0 ? NO_GROUPING : gbfields[0];
+        Type gbfieldtype = gbfields.length == 0 ? null : gbfieldtypes[0];
+        if (afieldtypes[0] == Type.STRING_TYPE)
+            return new StringAggregator(gbfield, gbfieldtype, afields[0], whats[0]);
+        return new IntAggregator(gbfield, gbfieldtype, afields[0], whats[0]);
+    }
+
+    private static int numGroups(Aggregator a) {
+        if (a instanceof IntAggregator)
+            return ((IntAggregator) a).numGroups();
+        if (a instanceof MultiAggregator)
+            return ((MultiAggregator) a).numGroups();
+        return ((StringAggregator) a).numGroups();
+    }
+
+    /** Account for new groups in partition p, spilling if over budget. */
+    private void grew(int p, int before) {
+        groups += numGroups(parts[p]) - before;
+        if (gbfields.length == 0)
+            return;
+        while (groups * groupBytes > memoryBytes && groups > 0)
+            spillLargest();
+    }
+
+    /** Write the partition with the most groups out to its spill file. */
+    private void spillLargest() {
+        int victim = 0;
+        for (int i = 1; i < PARTITIONS; i++) {
+            if (numGroups(parts[i]) > numGroups(parts[victim]))
+                victim = i;
+        }
+        try {
+            DbIterator it = parts[victim].partials();
+            if (spills[victim] == null)
+                spills[victim] = new SpillFile(it.getTupleDesc());
+            it.open();
+            while (it.hasNext())
+                spills[victim].add(it.next());
+            it.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error spilling aggregate: " + e.getMessage(), e);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+        groups -= numGroups(parts[victim]);
+        parts[victim] = newAggregator();
+        spillCount++;
+    }
+
+    /** @return the results or partials of every partition, one partition at a time */
+    private DbIterator results(final boolean partial) {
+        Aggregator empty = newAggregator();
+        final TupleDesc td = partial ? empty.partials().getTupleDesc()
+            : empty.iterator().getTupleDesc();
+        return new AbstractDbIterator() {
+            private int next = -1;
+            private DbIterator current = null;
+
+            public void open() {
+                next = 0;
+                current = null;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (true) {
+                    if (current != null && current.hasNext())
+                        return current.next();
+                    if (current != null)
+                        current.close();
+                    current = null;
+                    if (next < 0 || next == PARTITIONS)
+                        return null;
+                    current = partition(next++, partial);
+                    current.open();
+                }
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                if (current != null)
+                    current.close();
+                current = null;
+                next = -1;
+            }
+        };
+    }
+
+    /**
+     * @return the results or partials of partition p, merging its spilled
+     *   partial states the first time they are asked for
+     */
+    private DbIterator partition(int p, boolean partial)
+        throws DbException, TransactionAbortedException {
+        Aggregator a = parts[p];
+        if (spills[p] != null && merged[p] != null) {
+            a = merged[p];
+        } else if (spills[p] != null) {
+            if (depth + 1 < MAX_DEPTH) {
+                SpillingAggregator sub = new SpillingAggregator(gbfields, gbfieldtypes, afields,
+                                                                afieldtypes, whats, multi,
+                                                                memoryBytes, depth + 1);
+                nested.add(sub);
+                a = sub;
+            } else {
+                a = newAggregator();
+            }
+            mergePartials(a, spills[p].iterator());
+            mergePartials(a, parts[p].partials());
+            merged[p] = a;
+        }
+        return partial ? a.partials() : a.iterator();
+    }
+
+    private static void mergePartials(Aggregator a, DbIterator it)
+        throws DbException, TransactionAbortedException {
+        it.open();
+        while (it.hasNext())
+            a.mergePartial(it.next());
+        it.close();
+    }
+
+    /**
+     * @return the partition at this level of repartitioning of the group
+     *   value in the given fields of t, or, if fields is null, leading the
+     *   partial state t
+     */
+    private int partition(Tuple t, int[] fields) {
+        if (gbfields.length == 0)
+            return 0;
+        int h = 0;
+        for (int i = 0; i < gbfields.length; i++)
+            h = 31 * h + t.getField(fields == null ? i : fields[i]).hashCode();
+        h ^= seed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+}
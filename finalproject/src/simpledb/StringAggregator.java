@@ -78,4 +78,35 @@ public class StringAggregator implements Aggregator {
         return new TupleIterator(td, out);
     }
 
+    /** @return the number of groups seen so far */
+    int numGroups() {
+        return groups.size();
+    }
+
+    /**
+     * The partial state of a group is its count, after the group value if
+     * grouping.
+     */
+    public DbIterator partials() {
+        boolean grouping = (gbfield != NO_GROUPING);
+        TupleDesc td = grouping ? new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE })
+            : new TupleDesc(new Type[] { Type.INT_TYPE });
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (Map.Entry<Field, Integer> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            if (grouping)
+                t.setField(0, e.getKey());
+            t.setField(td.numFields() - 1, new IntField(e.getValue()));
+            out.add(t);
+        }
+        return new TupleIterator(td, out);
+    }
+
+    public void mergePartial(Tuple partial) {
+        Field key = (gbfield == NO_GROUPING) ? null : partial.getField(0);
+        int n = ((IntField) partial.getField(partial.getTupleDesc().numFields() - 1)).getValue();
+        Integer c = groups.get(key);
+        groups.put(key, c == null ? n : c + n);
+    }
+
 }
@@ -1,13 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
  */
 public class StringField implements Field {
-    private String value;
-    private int maxSize;
+    private static final byte[] ZEROES = new byte[Type.STRING_LEN];
+
+    private final String value;
+    private final int maxSize;
 
     public String getValue() {
         return value;
@@ -59,6 +62,25 @@ public class StringField implements Field {
         dos.write((byte)0);
     }
 
+    /** Write this string to buf, in the same format as
+    {@link #serialize(DataOutputStream)}.
+    @param buf Where the string is written
+    */
+    public void serialize(ByteBuffer buf) {
+    String s = value.length() > maxSize ? value.substring(0, maxSize) : value;
+    int len = s.length();
+    buf.putInt(len);
+    // like writeBytes, keep the low byte of each char
+    for (int i = 0; i < len; i++)
+        buf.put((byte) s.charAt(i));
+    int pad = maxSize - len;
+    while (pad > 0) {
+        int n = Math.min(pad, ZEROES.length);
+        buf.put(ZEROES, 0, n);
+        pad -= n;
+    }
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
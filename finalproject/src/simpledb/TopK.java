@@ -0,0 +1,134 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * TopK is an operator for ORDER BY ... LIMIT k: it returns the first k
+ * tuples of its child in the order OrderBy would, without sorting the
+ * whole input.  The best k tuples seen so far are kept in a heap with the
+ * worst of them on top, so each input tuple costs at most O(log k) and
+ * only k tuples are held in memory.
+ * <p>
+ * Tuples that tie on the sort fields are returned in the order the child
+ * produced them, as OrderBy's stable sort does.
+ */
+public class TopK extends AbstractDbIterator implements Ordered {
+    private final DbIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int k;
+
+    private Tuple[] top;
+    private int idx;
+
+    /** A tuple with its position in the input, to break ties. */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopK node over the tuples from the iterator.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc true if the sort order is ascending.
+     * @param k the number of tuples to return; must not be negative
+     * @param child the tuples to sort.
+     */
+    public TopK(int orderbyField, boolean asc, int k, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, k, child);
+    }
+
+    /**
+     * Creates a new TopK node sorting on several fields.
+     *
+     * @param orderbyFields the fields to which the sort is applied, most
+     *   significant first.
+     * @param asc true for each field that sorts ascending.
+     * @param k the number of tuples to return; must not be negative
+     * @param child the tuples to sort.
+     */
+    public TopK(int[] orderbyFields, boolean[] asc, int k, DbIterator child) {
+        if (k < 0)
+            throw new IllegalArgumentException("negative limit " + k);
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need a direction for each sort field");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.k = k;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples this operator returns at most */
+    public int getLimit() {
+        return k;
+    }
+
+    public boolean isSortedOn(int field, boolean asc) {
+        return field == orderByFields[0] && asc == ascs[0];
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        final Comparator<Tuple> cmp = new TupleComparator(td, orderByFields, ascs);
+        // the entry that sorts last is at the head
+        Comparator<Entry> worstFirst = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(b.t, a.t);
+                return c != 0 ? c : Long.compare(b.seq, a.seq);
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, k), worstFirst);
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < k) {
+                heap.add(new Entry(t, seq));
+            } else if (k > 0 && cmp.compare(t, heap.peek().t) < 0) {
+                // a tie with the worst kept tuple loses, as it came later
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll().t;
+        idx = 0;
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        idx = 0;
+    }
+
+    /**
+     * AbstractDbIterator.readNext implementation.
+     * Returns the best k tuples from the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more tuples
+     */
+    protected Tuple readNext()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (top != null && idx < top.length)
+            return top[idx++];
+        return null;
+    }
+}
@@ -6,7 +6,6 @@ import java.io.*;
  * Transaction encapsulates information about the state of
  * a transaction and manages transaction commit / abort.
  */
-// Not necessary for this project
 public class Transaction {
     TransactionId tid;
     boolean started = false;
@@ -30,9 +29,12 @@ public class Transaction {
         transactionComplete(false);
     }
 
-    /** Handle the details of transaction commit / abort */
+    /**
+     * Handle the details of transaction commit / abort: flush or discard
+     * the transaction's pages, and release its locks.
+     */
     public void transactionComplete(boolean abort) throws IOException {
-        // Not necessary for this project
+        Database.getBufferPool().transactionComplete(tid, !abort);
     }
 
 }
@@ -25,6 +25,15 @@ public class Tuple {
         this.recordId = null; // Initially null until set
     }
 
+    /**
+     * Create a tuple that stores no fields of its own, for subclasses that
+     * override getField and setField.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.tupleDesc = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -90,12 +99,13 @@ public class Tuple {
     public String toString() {
         // some code goes here
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < fields.length; i++) {
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
             if (i > 0) {
                 sb.append("\t");
             }
-            if (fields[i] != null) {
-                sb.append(fields[i].toString());
+            Field f = getField(i);
+            if (f != null) {
+                sb.append(f.toString());
             } else {
                 sb.append("null");
             }
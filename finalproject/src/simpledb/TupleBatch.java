@@ -0,0 +1,195 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to MAX_ROWS tuples of one schema by column: an int[]
+ * for each IntField column and a String[] for each StringField column, so
+ * an operator can process a column of a batch in a tight loop over an
+ * array.  Rows are numbered physically, in the order they were added.
+ * <p>
+ * A selection vector marks which rows are in the batch, so that a filter
+ * drops rows without moving any data.  {@link #numRows} and {@link #row}
+ * go through the selection: row(i), for i below numRows(), is the
+ * physical index of the ith selected row.  With no selection every row
+ * is selected.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** The most rows a batch holds. */
+    public static final int MAX_ROWS = 1024;
+
+    private final TupleDesc td;
+    // one array of MAX_ROWS values per field, an int[] or a String[] by type
+    private final Object[] columns;
+    // the number of rows added
+    private int size;
+    // the physical indexes of the selected rows, in increasing order, or
+    // null if every row is selected
+    private int[] sel;
+    private int selected;
+    // this batch's own selection vector, which sel is after a select
+    private int[] selBuffer;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the batch's tuples
+     */
+    public TupleBatch(TupleDesc td) {
+        this.td = td;
+        this.columns = new Object[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            if (td.getType(i) == Type.INT_TYPE)
+                columns[i] = new int[MAX_ROWS];
+            else
+                columns[i] = new String[MAX_ROWS];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, Object[] columns, int size, int[] sel, int selected) {
+        this.td = td;
+        this.columns = columns;
+        this.size = size;
+        this.sel = sel;
+        this.selected = selected;
+    }
+
+    /** @return the schema of this batch's tuples */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of selected rows */
+    public int numRows() {
+        return sel == null ? size : selected;
+    }
+
+    /** @return the physical index of the ith selected row */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == MAX_ROWS;
+    }
+
+    /** Remove every row, and the selection. */
+    public void clear() {
+        size = 0;
+        sel = null;
+    }
+
+    /**
+     * @return the values of IntField column field, by physical row; only
+     *   the selected rows are meaningful
+     */
+    public int[] getInts(int field) {
+        return (int[]) columns[field];
+    }
+
+    /**
+     * @return the values of StringField column field, by physical row;
+     *   only the selected rows are meaningful
+     */
+    public String[] getStrings(int field) {
+        return (String[]) columns[field];
+    }
+
+    /** @return field field of physical row row, as a Field */
+    public Field getField(int field, int row) {
+        if (td.getType(field) == Type.INT_TYPE)
+            return new IntField(getInts(field)[row]);
+        return new StringField(getStrings(field)[row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return a new tuple holding the ith selected row, which stays valid
+     *   after this batch is cleared
+     */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int f = 0; f < columns.length; f++)
+            t.setField(f, getField(f, r));
+        return t;
+    }
+
+    /**
+     * Add a row holding the fields of t, which must match this batch's
+     * schema.
+     *
+     * @throws IllegalStateException if the batch is full, or has a selection
+     */
+    public void add(Tuple t) {
+        int r = addRow();
+        for (int f = 0; f < columns.length; f++) {
+            if (td.getType(f) == Type.INT_TYPE)
+                getInts(f)[r] = ((IntField) t.getField(f)).getValue();
+            else
+                getStrings(f)[r] = ((StringField) t.getField(f)).getValue();
+        }
+    }
+
+    /**
+     * Add a row with unset fields, to be filled in with {@link #copy}.
+     *
+     * @return the physical index of the new row
+     * @throws IllegalStateException if the batch is full, or has a selection
+     */
+    public int addRow() {
+        if (size == MAX_ROWS)
+            throw new IllegalStateException("batch is full");
+        if (sel != null)
+            throw new IllegalStateException("rows cannot be added to a batch with a selection");
+        return size++;
+    }
+
+    /**
+     * Copy every field of physical row srcRow of src into physical row
+     * destRow of this batch, from field destField on.
+     */
+    public void copy(TupleBatch src, int srcRow, int destRow, int destField) {
+        for (int f = 0; f < src.columns.length; f++) {
+            if (src.td.getType(f) == Type.INT_TYPE)
+                getInts(destField + f)[destRow] = src.getInts(f)[srcRow];
+            else
+                getStrings(destField + f)[destRow] = src.getStrings(f)[srcRow];
+        }
+    }
+
+    /**
+     * @return an array of MAX_ROWS ints to write a new selection into,
+     *   before passing it to {@link #select}.  Writing the ith new selected
+     *   row after reading row(i) is safe, so a selection can be narrowed in
+     *   place.
+     */
+    public int[] selectionBuffer() {
+        if (selBuffer == null)
+            selBuffer = new int[MAX_ROWS];
+        return selBuffer;
+    }
+
+    /**
+     * Select the n physical rows at the start of the selection buffer,
+     * which must be in increasing order, and a subset of the rows
+     * currently selected.
+     */
+    public void select(int n) {
+        sel = selectionBuffer();
+        selected = n;
+    }
+
+    /**
+     * @return a batch of the same rows and selection whose field i is field
+     *   fields[i] of this batch.  The columns are shared, not copied, so the
+     *   result is only valid while this batch is.
+     */
+    public TupleBatch project(TupleDesc td, int[] fields) {
+        Object[] cols = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            cols[i] = columns[fields[i]];
+        return new TupleBatch(td, cols, size, sel, selected);
+    }
+}
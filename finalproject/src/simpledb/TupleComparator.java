@@ -0,0 +1,68 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * Compares tuples on a list of sort keys, each ascending or descending.
+ * The comparison for each key is chosen by the key's type when the
+ * comparator is made, and compares the two values once, three ways, rather
+ * than asking Field.compare for EQUALS and then GREATER_THAN.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+    private final Key[] keys;
+
+    /**
+     * @param td the schema of the tuples compared
+     * @param fields the sort keys, most significant first
+     * @param asc whether each key sorts ascending
+     */
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        keys = new Key[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (td.getType(fields[i]) == Type.INT_TYPE)
+                keys[i] = new IntKey(fields[i], asc[i]);
+            else
+                keys[i] = new StringKey(fields[i], asc[i]);
+        }
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (Key k : keys) {
+            int c = k.compare(o1, o2);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    private static abstract class Key {
+        final int field;
+        final boolean asc;
+        Key(int field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
+        abstract int compare(Tuple o1, Tuple o2);
+    }
+
+    private static final class IntKey extends Key {
+        IntKey(int field, boolean asc) {
+            super(field, asc);
+        }
+        int compare(Tuple o1, Tuple o2) {
+            int c = Integer.compare(((IntField) o1.getField(field)).getValue(),
+                                    ((IntField) o2.getField(field)).getValue());
+            return asc ? c : -c;
+        }
+    }
+
+    private static final class StringKey extends Key {
+        StringKey(int field, boolean asc) {
+            super(field, asc);
+        }
+        int compare(Tuple o1, Tuple o2) {
+            int c = ((StringField) o1.getField(field)).getValue()
+                .compareTo(((StringField) o2.getField(field)).getValue());
+            return asc ? c : -c;
+        }
+    }
+}
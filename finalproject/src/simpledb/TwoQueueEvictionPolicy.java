@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha).  Pages read for the first time
+ * enter a FIFO queue, A1in.  Only pages that are referenced again after
+ * falling out of A1in (remembered by id in the ghost queue A1out) are
+ * promoted to the LRU-managed main queue, Am.  A sequential scan therefore
+ * cycles through A1in without disturbing the hot pages in Am.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final LinkedHashMap<PageId, Boolean> am =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /**
+     * @param capacity the buffer pool size; A1in is sized to a quarter and
+     *   A1out to half of it, the values recommended by the paper
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        this.kin = Math.max(capacity / 4, 1);
+        this.kout = Math.max(capacity / 2, 1);
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        if (a1out.remove(pid))
+            am.put(pid, Boolean.TRUE);
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored; they are usually correlated
+        // references from the same scan
+        am.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty())
+            victim = first(a1in, evictable);
+        if (victim != null) {
+            remember(victim);
+            return victim;
+        }
+        victim = first(am.keySet(), evictable);
+        if (victim == null) {
+            victim = first(a1in, evictable);
+            if (victim != null)
+                remember(victim);
+        }
+        return victim;
+    }
+
+    public String name() {
+        return "2q";
+    }
+
+    private static PageId first(Collection<PageId> queue, Evictable evictable) {
+        for (PageId pid : queue) {
+            if (evictable.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -57,6 +58,40 @@ public class Type {
     }
   }
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified offset of the buffer.  The buffer's position
+   *   is not used or changed, so several threads can decode from one buffer.
+   * @param buf The buffer to read from
+   * @param offset The absolute index of the field in buf
+   * @throws ParseException if the buffer does not hold a complete field of
+   *   this type at offset.
+   */
+  public Field parse(ByteBuffer buf, int offset) throws ParseException {
+    try {
+      switch (typeId) {
+        case INT_ID:
+          return new IntField(buf.getInt(offset));
+      case STRING_ID:
+      int strLen = buf.getInt(offset);
+      if (strLen < 0 || strLen > STRING_LEN)
+        throw new ParseException("bad string length " + strLen, offset);
+      if (buf.hasArray())
+        // decode from the backing array, skipping the intermediate byte[]
+        return new StringField(new String(buf.array(), buf.arrayOffset() + offset + 4, strLen), STRING_LEN);
+      byte bs[] = new byte[strLen];
+      ByteBuffer b = buf.duplicate();
+      b.position(offset + 4);
+      b.get(bs);
+      return new StringField(new String(bs), STRING_LEN);
+        default:
+          return null;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new ParseException("couldn't parse", offset);
+    }
+  }
+
   /**
    * @return true if the specified type is the same as the type of this object
    */
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * UnbatchingIterator reads a BatchIterator as a DbIterator, returning the
+ * selected rows of each batch in turn as tuples, so that any operator can
+ * take a batch operator as its child.
+ */
+public class UnbatchingIterator extends AbstractDbIterator {
+
+    private final BatchIterator child;
+    private TupleBatch batch;
+    // the next selected row of batch to return
+    private int pos;
+
+    /**
+     * @param child the iterator to read batches from
+     */
+    public UnbatchingIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * AbstractDbIterator.readNext implementation.
+     * Returns a copy of the next selected row, since the batch it is in is
+     * reused.
+     */
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+}
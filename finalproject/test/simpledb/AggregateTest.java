@@ -172,6 +172,37 @@ public class AggregateTest {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for several aggregates computed by one Aggregate
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.COUNT });
+    assertEquals(4, op.getTupleDesc().numFields());
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, 12, 2, 3,
+                    3, 12, 2, 3,
+                    5, 7, 7, 1 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for an Aggregate grouped by two columns
+   */
+  @Test public void compositeGroupBy() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 0 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT });
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      assertEquals(1, ((IntField) op.next().getField(2)).getValue());
+      n++;
+    }
+    assertEquals(7, n);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
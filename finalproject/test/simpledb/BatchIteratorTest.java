@@ -0,0 +1,202 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchIteratorTest {
+
+  private static final int ROWS = 3000;
+
+  private HeapFile left;
+  private HeapFile right;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    left = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null);
+    right = SystemTestUtil.createRandomHeapFile(2, 40, 100, null, null);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return n tuples of an int and a string, including the extreme ints */
+  private TupleIterator mixed(int n) {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    Random r = new Random(0);
+    ArrayList<Tuple> out = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(td);
+      int v = i % 50 == 0 ? Integer.MAX_VALUE : i % 50 == 1 ? Integer.MIN_VALUE : r.nextInt(20);
+      t.setField(0, new IntField(v));
+      t.setField(1, new StringField("s" + r.nextInt(20), Type.STRING_LEN));
+      out.add(t);
+    }
+    return new TupleIterator(td, out);
+  }
+
+  /** @return the tuples of op, read through DbIterator, as strings */
+  private List<String> tuples(DbIterator op) throws Exception {
+    List<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    return out;
+  }
+
+  /** @return the tuples of op, read through BatchIterator, as strings */
+  private List<String> batches(BatchIterator op) throws Exception {
+    return tuples(new UnbatchingIterator(op));
+  }
+
+  /**
+   * Round trip from tuples to batches and back, and rewind
+   */
+  @Test public void adapters() throws Exception {
+    TupleIterator in = mixed(ROWS);
+    BatchingIterator batching = new BatchingIterator(in);
+    batching.open();
+    TupleBatch b = batching.nextBatch();
+    assertEquals(TupleBatch.MAX_ROWS, b.numRows());
+    assertEquals(in.getTupleDesc(), b.getTupleDesc());
+    batching.close();
+
+    assertEquals(tuples(in), batches(new BatchingIterator(in)));
+
+    UnbatchingIterator op = new UnbatchingIterator(new BatchingIterator(in));
+    op.open();
+    op.next();
+    op.rewind();
+    TupleIterator expected = mixed(ROWS);
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * A SeqScan returns the same tuples in batches as one at a time
+   */
+  @Test public void seqScan() throws Exception {
+    SeqScan scan = new SeqScan(tid, left.id(), "t");
+    List<String> expected = tuples(scan);
+    assertEquals(ROWS, expected.size());
+    assertEquals(expected, batches(scan));
+  }
+
+  /**
+   * A Filter selects the same tuples from batches as from tuples, for every
+   * op, over ints (including the extremes) and strings
+   */
+  @Test public void filter() throws Exception {
+    TupleIterator in = mixed(ROWS);
+    Field[] operands = { new IntField(7), new IntField(Integer.MAX_VALUE),
+                         new IntField(Integer.MIN_VALUE) };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (Field f : operands) {
+        Filter filter = new Filter(new Predicate(0, op, f), in);
+        assertEquals(op + " " + f, tuples(filter), batches(filter));
+      }
+      Filter filter = new Filter(new Predicate(1, op, new StringField("s1", Type.STRING_LEN)), in);
+      assertEquals(op + " s1", tuples(filter), batches(filter));
+    }
+
+    // the outer filter narrows the selection the inner one made
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)),
+        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                   new SeqScan(tid, left.id(), "t")));
+    List<String> expected = tuples(filter);
+    assertTrue(expected.size() > 0 && expected.size() < ROWS / 2);
+    assertEquals(expected, batches(filter));
+  }
+
+  /**
+   * A Project over a Filter returns the same tuples from batches
+   */
+  @Test public void project() throws Exception {
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30)),
+                               new SeqScan(tid, left.id(), "t"));
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(1, 0, 1));
+    ArrayList<Type> types = new ArrayList<Type>(
+        Arrays.asList(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE));
+    Project project = new Project(fields, types, filter);
+    assertEquals(tuples(project), batches(project));
+  }
+
+  /**
+   * A Join finds the same tuples from batches, in some order, over batch
+   * and tuple children
+   */
+  @Test public void join() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                                                Predicate.Op.GREATER_THAN_OR_EQ }) {
+      Join join = new Join(new JoinPredicate(0, op, 1), new SeqScan(tid, left.id(), "a"),
+                           new SeqScan(tid, right.id(), "b"));
+      List<String> expected = tuples(join);
+      List<String> actual = batches(join);
+      assertTrue(expected.size() > TupleBatch.MAX_ROWS);
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertEquals(op.toString(), expected, actual);
+    }
+
+    TupleIterator in = mixed(500);
+    Join join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 1), in, mixed(100));
+    List<String> expected = tuples(join);
+    List<String> actual = batches(join);
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * An Aggregate over a batch child computes what it does over a tuple
+   * child, and returns its result in batches
+   */
+  @Test public void aggregate() throws Exception {
+    SeqScan scan = new SeqScan(tid, left.id(), "t");
+    List<Tuple> copy = new ArrayList<Tuple>();
+    scan.open();
+    while (scan.hasNext())
+      copy.add(scan.next());
+    scan.close();
+    TupleIterator in = new TupleIterator(scan.getTupleDesc(), copy);
+
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      Aggregate expected = new Aggregate(in, 1, Aggregator.NO_GROUPING, op);
+      Aggregate actual = new Aggregate(new SeqScan(tid, left.id(), "t"), 1,
+                                       Aggregator.NO_GROUPING, op);
+      assertEquals(op.toString(), tuples(expected), tuples(actual));
+    }
+
+    Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+    int[] afields = { 0, 1, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.MIN, Aggregator.Op.MAX };
+    Aggregate empty = new Aggregate(new Filter(none, new SeqScan(tid, left.id(), "t")),
+                                    afields, new int[0], ops);
+    assertEquals(Arrays.asList("0\t0\t0\n"), tuples(empty));
+
+    Aggregate grouped = new Aggregate(new SeqScan(tid, left.id(), "t"), 1, 0,
+                                      Aggregator.Op.SUM);
+    List<String> expected = tuples(grouped);
+    List<String> actual = batches(grouped);
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchIteratorTest.class);
+  }
+}
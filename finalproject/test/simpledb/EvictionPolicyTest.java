@@ -0,0 +1,132 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest {
+
+    private static final EvictionPolicy.Evictable ANY = new EvictionPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static void admit(EvictionPolicy p, int... pages) {
+        for (int pg : pages)
+            p.pageAdmitted(page(pg));
+    }
+
+    /**
+     * Unit test for LruEvictionPolicy: the least recently used page goes
+     */
+    @Test public void lru() {
+        EvictionPolicy p = new LruEvictionPolicy();
+        admit(p, 0, 1, 2);
+        p.pageAccessed(page(0));
+        assertEquals(page(1), p.chooseVictim(ANY));
+        p.pageRemoved(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: referenced pages get a second chance
+     */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockEvictionPolicy();
+        admit(p, 0, 1, 2);
+        // first sweep clears all bits and comes back around to page 0
+        assertEquals(page(0), p.chooseVictim(ANY));
+        p.pageRemoved(page(0));
+        p.pageAccessed(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: pages seen once go before pages seen twice
+     */
+    @Test public void lruK() {
+        EvictionPolicy p = new LruKEvictionPolicy(2, 10);
+        admit(p, 0, 1, 2);
+        p.pageAccessed(page(0));
+        p.pageAccessed(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+        p.pageRemoved(page(2));
+        // page 0 has the oldest second-to-last reference
+        assertEquals(page(0), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy: a scan does not flush the hot set
+     */
+    @Test public void twoQueue() {
+        EvictionPolicy p = new TwoQueueEvictionPolicy(8);
+        // page 0 is read, evicted, then re-read: it is promoted to Am
+        admit(p, 0);
+        assertEquals(page(0), p.chooseVictim(ANY));
+        p.pageRemoved(page(0));
+        admit(p, 0);
+        for (int pg = 1; pg < 8; pg++) {
+            admit(p, pg);
+        }
+        for (int pg = 8; pg < 20; pg++) {
+            PageId victim = p.chooseVictim(ANY);
+            assertFalse(page(0).equals(victim));
+            p.pageRemoved(victim);
+            admit(p, pg);
+        }
+    }
+
+    /**
+     * Unit test for the Evictable filter: pinned pages are skipped
+     */
+    @Test public void skipsUnevictable() {
+        EvictionPolicy[] policies = new EvictionPolicy[] {
+            new LruEvictionPolicy(), new ClockEvictionPolicy(),
+            new LruKEvictionPolicy(4), new TwoQueueEvictionPolicy(4)
+        };
+        EvictionPolicy.Evictable onlyTwo = new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return pid.pageno() == 2;
+            }
+        };
+        EvictionPolicy.Evictable none = new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        };
+        for (EvictionPolicy p : policies) {
+            admit(p, 0, 1, 2, 3);
+            assertEquals(p.name(), page(2), p.chooseVictim(onlyTwo));
+            assertNull(p.name(), p.chooseVictim(none));
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.newEvictionPolicy()
+     */
+    @Test public void byName() {
+        assertEquals("lru", BufferPool.newEvictionPolicy("LRU", 10).name());
+        assertEquals("clock", BufferPool.newEvictionPolicy("clock", 10).name());
+        assertEquals("lru-2", BufferPool.newEvictionPolicy("lru-k", 10).name());
+        assertEquals("lru-3", BufferPool.newEvictionPolicy("lru-3", 10).name());
+        assertEquals("2q", BufferPool.newEvictionPolicy("2q", 10).name());
+        try {
+            BufferPool.newEvictionPolicy("mru", 10);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
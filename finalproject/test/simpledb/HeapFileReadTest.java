@@ -52,6 +52,20 @@ public class HeapFileReadTest {
         // assertEquals(1, empty.numPages());
     }
 
+    /**
+     * Unit test for the cached page count following pages written to the end
+     * of the file
+     */
+    @Test
+    public void numPagesAfterWrite() throws Exception {
+        assertEquals(1, hf.numPages());
+        HeapPageId pid = new HeapPageId(hf.id(), 1);
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData(hf.id())));
+        assertEquals(2, hf.numPages());
+        assertEquals(2 * hf.bytesPerPage(), hf.getFile().length());
+        assertEquals(hf.getLayout().getNumSlots(), ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapFile.readPage()
      */
@@ -67,6 +81,38 @@ public class HeapFileReadTest {
         assertFalse(page.getSlot(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): a closed file reopens its channel on
+     * the next read
+     */
+    @Test
+    public void readAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.id(), 0);
+        hf.readPage(pid);
+        hf.close();
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(492, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for reading a memory-mapped HeapFile that spans several
+     * mapped chunks
+     */
+    @Test
+    public void memoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+        mapped.setChunkPages(2);
+        Database.getCatalog().setMemoryMapped(mapped.id(), true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(3, mapped.numPages());
+
+        SystemTestUtil.matchTuples(mapped, tuples);
+        HeapPage last = (HeapPage) mapped.readPage(new HeapPageId(mapped.id(), 2));
+        assertEquals(512 - (1200 - 1024), last.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
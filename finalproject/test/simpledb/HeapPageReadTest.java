@@ -8,6 +8,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -97,6 +98,48 @@ public class HeapPageReadTest {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples are
+     * partly, or not at all, decoded
+     */
+    @Test public void getPageDataLazy() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        it.next().getField(1);
+        it.next();
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
+    /**
+     * Unit test for decoding and re-encoding a page with string fields
+     */
+    @Test public void stringFields() throws Exception {
+        File text = File.createTempFile("strings", ".txt");
+        text.deleteOnExit();
+        java.io.FileWriter w = new java.io.FileWriter(text);
+        w.write("alpha,1\nbeta,2\n,3\n");
+        w.close();
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        Type[] types = new Type[] { Type.STRING_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(text, temp, BufferPool.PAGE_SIZE, 2, types);
+        byte[] data = TestUtil.readFileBytes(temp.getAbsolutePath());
+
+        Database.getCatalog().addTable(new SkeletonFile(-2), new TupleDesc(types));
+        HeapPage page = new HeapPage(new HeapPageId(-2, 0), data);
+        Iterator<Tuple> it = page.iterator();
+        String[] expected = { "alpha", "beta", "" };
+        for (int i = 0; i < expected.length; i++) {
+            Tuple t = it.next();
+            assertEquals(expected[i], ((StringField) t.getField(0)).getValue());
+            assertEquals(i + 1, ((IntField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(data, page.getPageData());
+    }
+
     /**
      * Unit test for HeapPage.isDirty()
      */
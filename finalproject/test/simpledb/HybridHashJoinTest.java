@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HybridHashJoinTest {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    5, 6, 5, 6, 7,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 5, 6 });
+  }
+
+  /**
+   * Build a two column tuple list of n rows whose first column is key(i)
+   * and second column is i.
+   */
+  private DbIterator createKeyed(int n, int keys) {
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = keys == 0 ? 42 : i % keys;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return every tuple of it, as strings, in sorted order */
+  private List<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for HybridHashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HybridHashJoin.getNext() when everything fits in memory
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledPartitionCount());
+    assertEquals(0, op.getSpillBytes());
+  }
+
+  /**
+   * Unit test for HybridHashJoin.rewind() with spilled partitions
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, scan1, scan2, 0);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.close();
+  }
+
+  /**
+   * A build side larger than the budget is partitioned to disk, and the
+   * join returns the same tuples as an in-memory hash join.
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin expected = new HashEquiJoin(pred, createKeyed(3000, 1000), createKeyed(4000, 1000));
+    HybridHashJoin op = new HybridHashJoin(pred, createKeyed(3000, 1000), createKeyed(4000, 1000),
+                                           64 * 1024);
+    expected.open();
+    op.open();
+    List<String> want = drain(expected);
+    assertEquals(12000, want.size());
+    assertEquals(want, drain(op));
+    assertTrue(op.getSpilledPartitionCount() > 0);
+    assertTrue(op.getSpilledPartitionCount() < op.getPartitionCount());
+    assertTrue(op.getSpillBytes() > 0);
+    op.close();
+  }
+
+  /**
+   * A single join key can not be split by repartitioning; the join gives
+   * up after HybridHashJoin.MAX_DEPTH levels and still returns every match.
+   */
+  @Test public void skew() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, createKeyed(20, 0), createKeyed(1000, 0), 1024);
+    op.open();
+    assertEquals(20 * 1000, drain(op).size());
+    assertEquals(HybridHashJoin.MAX_DEPTH, op.getRecursionDepth());
+    assertEquals(HybridHashJoin.MAX_DEPTH, op.getSpilledPartitionCount());
+    op.close();
+  }
+
+  /** @return a table named name of n rows (i % keys, i), added to the catalog */
+  private HeapFile createTable(String name, int n, int keys) throws IOException {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < n; i++)
+      rows.add(new ArrayList<Integer>(Arrays.asList(i % keys, i)));
+    File f = File.createTempFile(name, ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(rows, f, BufferPool.PAGE_SIZE, 2);
+    HeapFile hf = new HeapFile(f);
+    Database.getCatalog().addTable(hf, new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                                                     new String[] { "k", "v" }), name);
+    return hf;
+  }
+
+  /**
+   * The parser plans an equality join as a HybridHashJoin, which spills
+   * when its build side outgrows a small budget
+   */
+  @Test public void planned() throws Exception {
+    createTable("hhj_left", 3000, 1000);
+    createTable("hhj_right", 4000, 1000);
+    TransactionId tid = new TransactionId();
+    String sql = "SELECT hhj_left.v, hhj_right.v FROM hhj_left, hhj_right "
+        + "WHERE hhj_left.k = hhj_right.k;";
+    Zql.ZQuery q = (Zql.ZQuery) new Zql.ZqlParser(
+        new ByteArrayInputStream(sql.getBytes())).readStatement();
+    // the parser is in the default package, which cannot be imported
+    Method parse = Class.forName("parser").getMethod("parseQuery", TransactionId.class,
+                                                     Zql.ZQuery.class);
+    Project plan = (Project) parse.invoke(null, tid, q);
+    assertTrue(plan.child instanceof HybridHashJoin);
+    HybridHashJoin join = (HybridHashJoin) plan.child;
+    join.setMemoryBytes(64 * 1024);
+
+    plan.open();
+    assertEquals(12000, drain(plan).size());
+    assertTrue(join.getSpilledPartitionCount() > 0);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Only equality predicates can be hashed
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    new HybridHashJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HybridHashJoinTest.class);
+  }
+}
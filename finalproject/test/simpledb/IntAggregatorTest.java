@@ -118,6 +118,74 @@ public class IntAggregatorTest {
     }
   }
 
+  /**
+   * AVG is exact when the group's sum overflows an int
+   */
+  @Test public void avgLargeValues() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE });
+    scan.open();
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    while (scan.hasNext())
+      agg.merge(scan.next());
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 1, 2, Integer.MIN_VALUE }), agg.iterator());
+  }
+
+  /**
+   * Many groups, including negative and zero keys, each with its own count
+   */
+  @Test public void manyGroups() throws Exception {
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int k = -500; k < 500; k++) {
+      for (int i = 0; i <= (k & 3); i++)
+        agg.merge(Utility.getHeapTuple(new int[] { k * 7919, i }));
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int k = ((IntField) t.getField(0)).getValue() / 7919;
+      assertEquals((k & 3) + 1, ((IntField) t.getField(1)).getValue());
+      groups++;
+    }
+    assertEquals(1000, groups);
+  }
+
+  /**
+   * Merging the partials of two aggregators over halves of the input gives
+   * the same result as one aggregator over all of it
+   */
+  @Test public void mergePartials() throws Exception {
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      setUp();
+      scan1.open();
+      IntAggregator whole = new IntAggregator(0, Type.INT_TYPE, 1, op);
+      IntAggregator[] halves = new IntAggregator[] {
+        new IntAggregator(0, Type.INT_TYPE, 1, op),
+        new IntAggregator(0, Type.INT_TYPE, 1, op) };
+      for (int i = 0; scan1.hasNext(); i++) {
+        Tuple t = scan1.next();
+        whole.merge(t);
+        halves[i % 2].merge(t);
+      }
+      IntAggregator merged = new IntAggregator(0, Type.INT_TYPE, 1, op);
+      for (IntAggregator half : halves) {
+        DbIterator it = half.partials();
+        it.open();
+        while (it.hasNext())
+          merged.mergePartial(it.next());
+      }
+      DbIterator expected = whole.iterator();
+      expected.open();
+      TestUtil.matchAllTuples(expected, merged.iterator());
+    }
+  }
+
   /**
    * Test IntAggregator.iterator() for DbIterator behaviour
    */
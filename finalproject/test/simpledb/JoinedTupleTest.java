@@ -0,0 +1,52 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinedTupleTest {
+
+    /**
+     * Unit test for JoinedTuple.getField(): left fields, then right fields
+     */
+    @Test public void getField() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.combine(left.getTupleDesc(), right.getTupleDesc());
+        Tuple tup = new JoinedTuple(td, left, right, 2);
+
+        assertEquals(td, tup.getTupleDesc());
+        for (int i = 0; i < 5; i++)
+            assertEquals(new IntField(i + 1), tup.getField(i));
+        assertEquals("1\t2\t3\t4\t5\n", tup.toString());
+    }
+
+    /**
+     * Setting a field of the view leaves the joined tuples alone
+     */
+    @Test public void setField() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3 });
+        TupleDesc td = TupleDesc.combine(left.getTupleDesc(), right.getTupleDesc());
+        Tuple tup = new JoinedTuple(td, left, right, 2);
+
+        tup.setField(2, new IntField(37));
+        assertEquals(new IntField(37), tup.getField(2));
+        assertEquals(new IntField(3), right.getField(0));
+        assertEquals(new IntField(1), tup.getField(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class) public void outOfRange() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1 });
+        Tuple right = Utility.getHeapTuple(new int[] { 2 });
+        TupleDesc td = TupleDesc.combine(left.getTupleDesc(), right.getTupleDesc());
+        new JoinedTuple(td, left, right, 1).getField(2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinedTupleTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockingTest {
+    private static final int TIMEOUT = 500;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // two int columns, 512 tuples per page -> two pages
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        p0 = new HeapPageId(hf.id(), 0);
+        p1 = new HeapPageId(hf.id(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid1);
+        Database.getBufferPool().transactionComplete(tid2);
+    }
+
+    /**
+     * Start a LockGrabber and give it TIMEOUT ms to get its lock.
+     */
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        t.join(TIMEOUT);
+        return t;
+    }
+
+    /**
+     * Unit test for two shared locks on the same page
+     */
+    @Test public void sharedShared() throws Exception {
+        Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(t.acquired());
+        assertTrue(Database.getBufferPool().holdsLock(tid1, p0));
+        assertTrue(Database.getBufferPool().holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for an exclusive lock blocking a shared lock until commit
+     */
+    @Test public void exclusiveBlocksShared() throws Exception {
+        Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(t.acquired());
+
+        Database.getBufferPool().transactionComplete(tid1);
+        assertFalse(Database.getBufferPool().holdsLock(tid1, p0));
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+        assertTrue(Database.getBufferPool().getLockManager().getWaitCount() > 0);
+    }
+
+    /**
+     * Unit test for upgrading a shared lock when no one else holds it
+     */
+    @Test public void upgrade() throws Exception {
+        Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+        Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(t.acquired());
+        Database.getBufferPool().releasePage(tid1, p0);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+    }
+
+    /**
+     * Unit test for deadlock detection: the transaction that closes the
+     * cycle is aborted and the other one proceeds
+     */
+    @Test public void deadlock() throws Exception {
+        Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+        Database.getBufferPool().getPage(tid2, p1, Permissions.READ_WRITE);
+
+        TestUtil.LockGrabber t1 = grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(t1.acquired());
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(t2.acquired());
+        assertTrue(t2.getError() instanceof TransactionAbortedException);
+
+        // t2's LockGrabber aborts tid2, which releases p1 to t1
+        t1.join(TIMEOUT);
+        assertTrue(t1.acquired());
+        assertEquals(1, Database.getBufferPool().getLockManager().getAbortCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class NormalizedKeyTest {
+
+  private static final String[] STRINGS = {
+    "", "a", "ab", "a\u0000", "a\u0001", "b", "\u00e9", "\u0800x", "\uffff", "Z", "abc"
+  };
+
+  /** @return n tuples of an int and a string, with many ties on each */
+  private List<Tuple> tuples(int n) {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    Random r = new Random(0);
+    int[] ints = { Integer.MIN_VALUE, -1, 0, 1, 255, 256, Integer.MAX_VALUE };
+    ArrayList<Tuple> out = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(ints[r.nextInt(ints.length)]));
+      t.setField(1, new StringField(STRINGS[r.nextInt(STRINGS.length)], Type.STRING_LEN));
+      out.add(t);
+    }
+    return out;
+  }
+
+  /** @return the sign of c */
+  private static int sign(int c) {
+    return c < 0 ? -1 : c > 0 ? 1 : 0;
+  }
+
+  /**
+   * Normalized keys order every pair of tuples as TupleComparator does, on
+   * int and string keys, in each direction
+   */
+  @Test public void matchesComparator() {
+    List<Tuple> ts = tuples(200);
+    TupleDesc td = ts.get(0).getTupleDesc();
+    int[][] keys = { { 0 }, { 1 }, { 0, 1 }, { 1, 0 } };
+    for (int[] fields : keys) {
+      for (int dirs = 0; dirs < (1 << fields.length); dirs++) {
+        boolean[] asc = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++)
+          asc[i] = (dirs & (1 << i)) == 0;
+        TupleComparator cmp = new TupleComparator(td, fields, asc);
+        NormalizedKey nk = new NormalizedKey(td, fields, asc);
+        for (Tuple a : ts) {
+          byte[] ka = nk.encode(a);
+          for (Tuple b : ts) {
+            byte[] kb = nk.encode(b);
+            assertEquals(a + " vs " + b, sign(cmp.compare(a, b)),
+                         sign(NormalizedKey.compare(ka, kb)));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A key's prefix never orders two keys differently from the whole key
+   */
+  @Test public void prefix() {
+    List<Tuple> ts = tuples(100);
+    NormalizedKey nk = new NormalizedKey(ts.get(0).getTupleDesc(), new int[] { 1, 0 },
+                                         new boolean[] { true, false });
+    for (Tuple a : ts) {
+      for (Tuple b : ts) {
+        byte[] ka = nk.encode(a), kb = nk.encode(b);
+        int c = Long.compareUnsigned(NormalizedKey.prefix(ka), NormalizedKey.prefix(kb));
+        if (c != 0)
+          assertEquals(sign(c), sign(NormalizedKey.compare(ka, kb)));
+      }
+    }
+  }
+
+  /**
+   * OrderBy sorts the same with normalized keys as without
+   */
+  @Test public void orderBy() throws Exception {
+    List<Tuple> ts = tuples(500);
+    TupleIterator in = new TupleIterator(ts.get(0).getTupleDesc(), ts);
+    List<String> expected = new ArrayList<String>();
+    OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true }, in);
+    op.open();
+    while (op.hasNext())
+      expected.add(op.next().toString());
+    op.close();
+
+    op.setNormalizedKeys(true);
+    op.open();
+    for (String s : expected)
+      assertEquals(s, op.next().toString());
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Grouping on normalized keys finds the same groups
+   */
+  @Test public void grouping() throws Exception {
+    List<Tuple> ts = tuples(500);
+    Type[] gtypes = { Type.INT_TYPE, Type.STRING_TYPE };
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT };
+    MultiAggregator plain = new MultiAggregator(new int[] { 0, 1 }, gtypes, new int[] { 0 },
+                                                new Type[] { Type.INT_TYPE }, ops);
+    MultiAggregator normalized = new MultiAggregator(new int[] { 0, 1 }, gtypes, new int[] { 0 },
+                                                     new Type[] { Type.INT_TYPE }, ops);
+    plain.setNormalizedKeys(false);
+    normalized.setNormalizedKeys(true);
+    for (Tuple t : ts) {
+      plain.merge(t);
+      normalized.merge(t);
+    }
+    assertEquals(plain.numGroups(), normalized.numGroups());
+    DbIterator expected = plain.iterator();
+    expected.open();
+    DbIterator actual = normalized.iterator();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(NormalizedKeyTest.class);
+  }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest {
+
+  private static final int ROWS = 2000;
+
+  int[] data;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test with ROWS random (key, row number) tuples
+   */
+  @Before public void setUp() throws Exception {
+    Random r = new Random(0);
+    data = new int[ROWS * 2];
+    for (int i = 0; i < ROWS; i++) {
+      data[2 * i] = r.nextInt(500);
+      data[2 * i + 1] = i;
+    }
+    scan = TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the tuples of it, in order, as (key, row) pairs */
+  private List<int[]> drain(DbIterator it) throws Exception {
+    ArrayList<int[]> out = new ArrayList<int[]>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      out.add(new int[] { ((IntField) t.getField(0)).getValue(),
+                          ((IntField) t.getField(1)).getValue() });
+    }
+    return out;
+  }
+
+  /** Check that rows are all the input, sorted on key, stably */
+  private void checkSorted(List<int[]> rows, boolean asc) {
+    assertEquals(ROWS, rows.size());
+    for (int i = 1; i < rows.size(); i++) {
+      int c = rows.get(i - 1)[0] - rows.get(i)[0];
+      assertTrue(asc ? c <= 0 : c >= 0);
+      if (c == 0)
+        assertTrue(rows.get(i - 1)[1] < rows.get(i)[1]);
+    }
+  }
+
+  /**
+   * Input within the budget is sorted in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, scan);
+    op.open();
+    checkSorted(drain(op), true);
+    assertEquals(0, op.getRunCount());
+    assertEquals(0, op.getMergePasses());
+    op.close();
+  }
+
+  /**
+   * Input beyond the budget is sorted in runs and merged, in as many
+   * passes as the fan-in requires
+   */
+  @Test public void external() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy op = new OrderBy(0, asc, scan);
+      // two pages: merges two runs at a time
+      op.setMemoryBytes(2 * BufferPool.PAGE_SIZE);
+      op.open();
+      checkSorted(drain(op), asc);
+      assertTrue(op.getRunCount() > 4);
+      assertTrue(op.getMergePasses() > 1);
+
+      op.rewind();
+      checkSorted(drain(op), asc);
+      op.close();
+    }
+  }
+
+  /**
+   * Parallel sorts and merge passes give the same stable order; they run
+   * in a pool of two workers so that they are parallel on any machine
+   */
+  @Test public void parallel() throws Exception {
+    final OrderBy op = new OrderBy(0, false, scan);
+    op.setParallelThreshold(1);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      for (final boolean external : new boolean[] { false, true }) {
+        pool.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            if (external)
+              op.setMemoryBytes(2 * BufferPool.PAGE_SIZE);
+            op.open();
+            checkSorted(drain(op), false);
+            assertEquals(external, op.getMergePasses() > 1);
+            op.close();
+            return null;
+          }
+        }).get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Reopening sorts the input again rather than adding to the last sort
+   */
+  @Test public void reopen() throws Exception {
+    OrderBy op = new OrderBy(0, true, scan);
+    op.open();
+    op.close();
+    op.open();
+    checkSorted(drain(op), true);
+    op.close();
+
+    op.setMemoryBytes(2 * BufferPool.PAGE_SIZE);
+    op.open();
+    int runs = op.getRunCount();
+    op.close();
+    op.open();
+    assertEquals(runs, op.getRunCount());
+    checkSorted(drain(op), true);
+    op.close();
+  }
+
+  /**
+   * A sort on two keys orders ties on the first by the second, in its own
+   * direction, for int and string keys
+   */
+  @Test public void multipleKeys() throws Exception {
+    TupleIterator in = TestUtil.createTupleList(3,
+        new Object[] { 2, "b", 1,
+                       1, "a", 2,
+                       2, "a", 3,
+                       1, "c", 4,
+                       2, "c", 5,
+                       1, "a", 6 });
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, in);
+    assertTrue(op.isSortedOn(0, true));
+    assertFalse(op.isSortedOn(1, false));
+    op.open();
+    int[] rows = new int[6];
+    for (int i = 0; i < rows.length; i++)
+      rows[i] = ((IntField) op.next().getField(2)).getValue();
+    assertTrue(TestUtil.checkExhausted(op));
+    assertArrayEquals(new int[] { 4, 2, 6, 5, 1, 3 }, rows);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
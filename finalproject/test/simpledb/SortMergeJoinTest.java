@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test; the inputs are deliberately not sorted
+   */
+  @Before public void setUp() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    3, 4,
+                    1, 2,
+                    7, 8,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 3, 5, 6,
+                    2, 3, 4,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 5, 6,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /** @return every tuple of it, as strings, in sorted order */
+  private List<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate, with
+   * duplicate keys on both sides; the output is in join key order
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    int last = Integer.MIN_VALUE;
+    int count = 0;
+    while (op.hasNext()) {
+      int key = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(key >= last);
+      last = key;
+      count++;
+    }
+    assertEquals(6, count);
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Each inequality gives the same tuples as a nested-loop Join.
+   */
+  @Test public void inequalities() throws Exception {
+    Predicate.Op[] ops = new Predicate.Op[] {
+      Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+      Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op o : ops) {
+      setUp();
+      JoinPredicate pred = new JoinPredicate(0, o, 0);
+      List<String> expected = drain(new Join(pred, scan1, scan2));
+      setUp();
+      assertEquals(o.toString(), expected, drain(new SortMergeJoin(pred, scan1, scan2)));
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * The join reports the orders it returns tuples in, and those reports
+   * pass through Filter.
+   */
+  @Test public void isSortedOn() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    assertTrue(op.isSortedOn(1, true));
+    assertTrue(op.isSortedOn(width1 + 2, true));
+    assertFalse(op.isSortedOn(0, true));
+    assertFalse(op.isSortedOn(1, false));
+
+    pred = new JoinPredicate(1, Predicate.Op.LESS_THAN, 2);
+    op = new SortMergeJoin(pred, scan1, scan2);
+    assertTrue(op.isSortedOn(1, true));
+    assertFalse(op.isSortedOn(width1 + 2, true));
+
+    Filter f = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(0)), op);
+    assertTrue(f.isSortedOn(1, true));
+    assertFalse(new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(0)),
+        scan1).isSortedOn(0, true));
+    assertTrue(new OrderBy(0, false, scan1).isSortedOn(0, false));
+  }
+
+  /**
+   * Only ordered comparisons can be merged
+   */
+  @Test(expected = IllegalArgumentException.class) public void like() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LIKE, 0);
+    new SortMergeJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
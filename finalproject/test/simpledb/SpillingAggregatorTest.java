@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SpillingAggregatorTest {
+
+  private static final int GROUPS = 3000;
+
+  /** @return every tuple of it, as strings, in sorted order */
+  private List<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Many groups in a small budget spill, and still aggregate exactly as
+   * an in-memory IntAggregator does
+   */
+  @Test public void spill() throws Exception {
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      IntAggregator expected = new IntAggregator(0, Type.INT_TYPE, 1, op);
+      SpillingAggregator agg = new SpillingAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE,
+                                                      op, 8 * 1024);
+      Random r = new Random(op.ordinal());
+      for (int i = 0; i < GROUPS * 4; i++) {
+        Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(GROUPS), r.nextInt(1000) - 500 });
+        expected.merge(t);
+        agg.merge(t);
+      }
+      assertTrue(agg.getSpillCount() > 0);
+      assertTrue(agg.getSpillBytes() > 0);
+      List<String> want = drain(expected.iterator());
+      assertEquals(want, drain(agg.iterator()));
+      // the results can be read again
+      assertEquals(want, drain(agg.iterator()));
+      agg.close();
+    }
+  }
+
+  /**
+   * A budget that holds every group never spills
+   */
+  @Test public void inMemory() throws Exception {
+    SpillingAggregator agg = new SpillingAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE,
+                                                    Aggregator.Op.SUM, 1 << 20);
+    for (int i = 0; i < 100; i++)
+      agg.merge(Utility.getHeapTuple(new int[] { i % 10, i }));
+    assertEquals(0, agg.getSpillCount());
+    assertEquals(10, drain(agg.iterator()).size());
+  }
+
+  /**
+   * String group values spill, and the partials of one spilling aggregator
+   * merge into another
+   */
+  @Test public void stringGroups() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+    StringAggregator expected = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    SpillingAggregator agg = new SpillingAggregator(0, Type.STRING_TYPE, 1, Type.STRING_TYPE,
+                                                    Aggregator.Op.COUNT, 4 * 1024);
+    for (int i = 0; i < 2000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("g" + (i * 31 % 700), Type.STRING_LEN));
+      t.setField(1, new StringField("v" + i, Type.STRING_LEN));
+      expected.merge(t);
+      agg.merge(t);
+    }
+    assertTrue(agg.getSpillCount() > 0);
+
+    SpillingAggregator merged = new SpillingAggregator(0, Type.STRING_TYPE, 1, Type.STRING_TYPE,
+                                                       Aggregator.Op.COUNT, 4 * 1024);
+    DbIterator it = agg.partials();
+    it.open();
+    while (it.hasNext())
+      merged.mergePartial(it.next());
+    assertEquals(drain(expected.iterator()), drain(merged.iterator()));
+    agg.close();
+    merged.close();
+  }
+
+  /**
+   * Rewinding the results reuses the merged spilled partitions rather than
+   * merging (and spilling) them again, and merging more tuples afterwards
+   * is still reflected in the results
+   */
+  @Test public void rewind() throws Exception {
+    IntAggregator expected = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    SpillingAggregator agg = new SpillingAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE,
+                                                    Aggregator.Op.SUM, 2 * 1024);
+    Random r = new Random(0);
+    for (int i = 0; i < GROUPS * 4; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(GROUPS), r.nextInt(1000) });
+      expected.merge(t);
+      agg.merge(t);
+    }
+    List<String> want = drain(expected.iterator());
+    DbIterator it = agg.iterator();
+    assertEquals(want, drain(it));
+    long bytes = agg.getSpillBytes();
+    int count = agg.getSpillCount();
+    for (int i = 0; i < 3; i++) {
+      it.open();
+      it.next();
+      it.rewind();
+      ArrayList<String> again = new ArrayList<String>();
+      while (it.hasNext())
+        again.add(it.next().toString());
+      it.close();
+      Collections.sort(again);
+      assertEquals(want, again);
+      assertEquals(bytes, agg.getSpillBytes());
+      assertEquals(count, agg.getSpillCount());
+    }
+
+    Tuple t = Utility.getHeapTuple(new int[] { 0, 1000000 });
+    expected.merge(t);
+    agg.merge(t);
+    assertEquals(drain(expected.iterator()), drain(agg.iterator()));
+    agg.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillingAggregatorTest.class);
+  }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TopKTest {
+
+  private static final int ROWS = 1000;
+
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test with (key, row number) tuples with many
+   * duplicate keys
+   */
+  @Before public void setUp() throws Exception {
+    Random r = new Random(0);
+    int[] data = new int[ROWS * 2];
+    for (int i = 0; i < ROWS; i++) {
+      data[2 * i] = r.nextInt(50);
+      data[2 * i + 1] = i;
+    }
+    scan = TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the first n tuples of it, in order, as strings */
+  private List<String> first(DbIterator it, int n) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    while (it.hasNext() && out.size() < n)
+      out.add(it.next().toString());
+    return out;
+  }
+
+  /**
+   * TopK returns what OrderBy returns first, ties included, in both
+   * directions
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      for (int k : new int[] { 1, 7, 50, ROWS, ROWS + 10 }) {
+        OrderBy sort = new OrderBy(0, asc, scan);
+        sort.open();
+        List<String> expected = first(sort, k);
+        sort.close();
+
+        TopK op = new TopK(0, asc, k, scan);
+        op.open();
+        assertEquals(expected, first(op, ROWS + 10));
+        op.close();
+      }
+    }
+  }
+
+  /**
+   * Unit test for TopK.rewind(), and a limit of 0
+   */
+  @Test public void rewind() throws Exception {
+    TopK op = new TopK(0, false, 10, scan);
+    op.open();
+    List<String> once = first(op, ROWS);
+    assertEquals(10, once.size());
+    op.rewind();
+    assertEquals(once, first(op, ROWS));
+    op.close();
+
+    op = new TopK(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * A LIMIT too large for an int is reported as a parse error by the shell,
+   * rather than escaping it as a NumberFormatException
+   */
+  @Test public void limitOutOfRange() throws Exception {
+    // the parser is in the default package, which cannot be imported
+    Method process = Class.forName("parser").getMethod("processNextStatement", InputStream.class);
+    String sql = "SELECT t.a FROM t ORDER BY t.a LIMIT 99999999999;";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(out, true));
+    try {
+      process.invoke(null, new ByteArrayInputStream(sql.getBytes()));
+    } finally {
+      System.setOut(stdout);
+    }
+    assertTrue(out.toString(), out.toString().contains("LIMIT out of range"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopKTest.class);
+  }
+}
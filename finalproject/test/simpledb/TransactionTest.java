@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TransactionTest {
+
+  private PageId p0;
+  private java.lang.reflect.Field curtrans;
+  private Method process;
+
+  /**
+   * Set up a table named txn_t, and a handle on the shell's statement
+   * processing; the parser is in the default package, which cannot be
+   * imported, so it is reached by reflection.
+   */
+  @Before public void setUp() throws Exception {
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 100; i++)
+      rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+    File f = File.createTempFile("txn_t", ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(rows, f, BufferPool.PAGE_SIZE, 2);
+    HeapFile hf = new HeapFile(f);
+    Database.getCatalog().addTable(hf, new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                                                     new String[] { "a", "b" }), "txn_t");
+    p0 = new HeapPageId(hf.id(), 0);
+
+    Class<?> parser = Class.forName("parser");
+    curtrans = parser.getDeclaredField("curtrans");
+    curtrans.setAccessible(true);
+    process = parser.getMethod("processNextStatement", InputStream.class);
+  }
+
+  @After public void tearDown() throws Exception {
+    curtrans.set(null, null);
+  }
+
+  /** Run sql as the shell does */
+  private void run(String sql) throws Exception {
+    process.invoke(null, new ByteArrayInputStream(sql.getBytes()));
+  }
+
+  /** @return the id of a new transaction the shell runs statements in */
+  private TransactionId begin() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    curtrans.set(null, t);
+    return t.tid();
+  }
+
+  /**
+   * A COMMIT releases the locks the session's queries took
+   */
+  @Test public void commitReleasesLocks() throws Exception {
+    TransactionId tid = begin();
+    run("SELECT txn_t.a FROM txn_t;");
+    assertTrue(Database.getBufferPool().holdsLock(tid, p0));
+    run("COMMIT;");
+    assertNull(curtrans.get(null));
+    assertFalse(Database.getBufferPool().holdsLock(tid, p0));
+  }
+
+  /**
+   * A ROLLBACK releases the locks the session's queries took
+   */
+  @Test public void rollbackReleasesLocks() throws Exception {
+    TransactionId tid = begin();
+    run("SELECT txn_t.a FROM txn_t;");
+    assertTrue(Database.getBufferPool().holdsLock(tid, p0));
+    run("ROLLBACK;");
+    assertNull(curtrans.get(null));
+    assertFalse(Database.getBufferPool().holdsLock(tid, p0));
+  }
+
+  /**
+   * Transaction.commit releases the transaction's locks
+   */
+  @Test public void commit() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().getPage(t.tid(), p0, Permissions.READ_WRITE);
+    assertTrue(Database.getBufferPool().holdsLock(t.tid(), p0));
+    t.commit();
+    assertFalse(Database.getBufferPool().holdsLock(t.tid(), p0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TransactionTest.class);
+  }
+}
@@ -0,0 +1,72 @@
+package simpledb.perf;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput, in rows per second, of a Filter over a SeqScan
+ * whose output is summed, read a tuple at a time through DbIterator and
+ * a batch at a time through BatchIterator.
+ * <p>
+ * The BufferPool is sized to hold the whole table and warmed first, so the
+ * runs measure execution rather than I/O.  Usage:
+ * <pre>
+ *   java simpledb.perf.BatchBenchmark [rows] [runs]
+ * </pre>
+ */
+public class BatchBenchmark {
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, null);
+        HeapFile table = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(table.numPages() + 16);
+        System.out.println(rows + " rows, " + table.numPages() + " pages");
+
+        for (int batched = 0; batched < 2; batched++) {
+            // warm up, and pull every page into the BufferPool
+            run(table, batched == 1);
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++)
+                times[i] = run(table, batched == 1);
+            Arrays.sort(times);
+            System.out.printf("%-8s %12.0f rows/s%n", batched == 1 ? "batch" : "tuple",
+                              rows / (times[runs / 2] / 1e9));
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /** @return the time taken to filter and sum the table, in nanoseconds */
+    private static long run(HeapFile table, boolean batched) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                                   new SeqScan(tid, table.id(), "t"));
+        long start = System.nanoTime();
+        filter.open();
+        long sum = 0;
+        if (batched) {
+            TupleBatch b;
+            while ((b = filter.nextBatch()) != null) {
+                int[] col = b.getInts(1);
+                for (int i = 0; i < b.numRows(); i++)
+                    sum += col[b.row(i)];
+            }
+        } else {
+            while (filter.hasNext())
+                sum += ((IntField) filter.next().getField(1)).getValue();
+        }
+        filter.close();
+        long time = System.nanoTime() - start;
+        sink += sum;
+        Database.getBufferPool().transactionComplete(tid);
+        return time;
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures IntAggregator merge throughput, in rows per second, for an int
+ * group-by key, against the HashMap&lt;Field, AggState&gt; IntAggregator used
+ * before.  Rows are drawn from a pool of prebuilt tuples so that the time
+ * is spent aggregating, not building tuples.  Usage:
+ * <pre>
+ *   java simpledb.perf.IntAggregatorBenchmark [rows] [groups] [runs]
+ * </pre>
+ */
+public class IntAggregatorBenchmark {
+    private static final int POOL = 1 << 20;
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        final int groups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random r = new Random(0);
+        final Tuple[] pool = new Tuple[POOL];
+        for (int i = 0; i < POOL; i++)
+            pool[i] = Utility.getHeapTuple(new int[] { r.nextInt(groups), r.nextInt() });
+
+        report("HashMap<Field, AggState>", rows, runs, new Runnable() {
+            public void run() {
+                LegacyAggregator agg = new LegacyAggregator();
+                for (int i = 0; i < rows; i++)
+                    agg.merge(pool[i & (POOL - 1)]);
+                sink += agg.groups.size();
+            }
+        });
+        report("IntAggregator", rows, runs, new Runnable() {
+            public void run() {
+                IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+                for (int i = 0; i < rows; i++)
+                    agg.merge(pool[i & (POOL - 1)]);
+                sink += agg.hashCode();
+            }
+        });
+        System.out.println("(" + sink + ")");
+    }
+
+    private static void report(String name, int rows, int runs, Runnable op) {
+        // warm up
+        op.run();
+        long[] times = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            op.run();
+            times[r] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-26s %12.0f rows/s%n", name, rows / (times[runs / 2] / 1e9));
+    }
+
+    /** The merge IntAggregator used to do for every tuple. */
+    private static class LegacyAggregator {
+        static class AggState {
+            int count = 0;
+            int sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            void add(int v) {
+                count++;
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+
+        final Map<Field, AggState> groups = new HashMap<Field, AggState>();
+
+        void merge(Tuple tup) {
+            Field key = tup.getField(0);
+            IntField aval = (IntField) tup.getField(1);
+            AggState st = groups.get(key);
+            if (st == null) {
+                st = new AggState();
+                groups.put(key, st);
+            }
+            st.add(aval.getValue());
+        }
+    }
+}
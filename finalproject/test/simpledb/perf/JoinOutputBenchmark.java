@@ -0,0 +1,103 @@
+package simpledb.perf;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of producing join output tuples for a wide join: the
+ * copy Join used to make (a new Tuple with every field of both inputs set
+ * one at a time) against a JoinedTuple view.  Reports output tuples per
+ * second and heap bytes allocated per output tuple, and the same for a
+ * whole HashEquiJoin of two in-memory inputs.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java simpledb.perf.JoinOutputBenchmark [fieldsPerSide] [runs]
+ * </pre>
+ */
+public class JoinOutputBenchmark {
+    private static final int ROWS = 20000;
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+
+        final TupleDesc td = Utility.getTupleDesc(width);
+        final TupleDesc merged = TupleDesc.combine(td, td);
+        final Tuple[] left = tuples(width, ROWS);
+        final Tuple[] right = tuples(width, ROWS);
+
+        report("copy into new Tuple", ROWS, runs, new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROWS; i++) {
+                    Tuple l = left[i], r = right[i];
+                    Tuple out = new Tuple(merged);
+                    int idx = 0;
+                    for (int j = 0; j < l.getTupleDesc().numFields(); j++)
+                        out.setField(idx++, l.getField(j));
+                    for (int j = 0; j < r.getTupleDesc().numFields(); j++)
+                        out.setField(idx++, r.getField(j));
+                    sink += out.getField(idx - 1).hashCode();
+                }
+            }
+        });
+        report("JoinedTuple view", ROWS, runs, new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROWS; i++) {
+                    Tuple out = new JoinedTuple(merged, left[i], right[i], left[i].getTupleDesc().numFields());
+                    sink += out.getField(merged.numFields() - 1).hashCode();
+                }
+            }
+        });
+
+        final java.util.List<Tuple> input = Arrays.asList(left);
+        report("HashEquiJoin", ROWS, runs, new Runnable() {
+            public void run() {
+                try {
+                    DbIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                                                       new TupleIterator(td, input),
+                                                       new TupleIterator(td, input));
+                    join.open();
+                    while (join.hasNext())
+                        sink += join.next().getField(0).hashCode();
+                    join.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        System.out.println("(" + sink + ")");
+    }
+
+    private static Tuple[] tuples(int width, int n) {
+        Tuple[] out = new Tuple[n];
+        for (int i = 0; i < n; i++)
+            out[i] = Utility.getHeapTuple(i, width);
+        return out;
+    }
+
+    private static void report(String name, int tuples, int runs, Runnable op) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        // warm up
+        for (int i = 0; i < 5; i++)
+            op.run();
+        long[] times = new long[runs];
+        long allocated = threads.getThreadAllocatedBytes(self);
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            op.run();
+            times[r] = System.nanoTime() - start;
+        }
+        allocated = threads.getThreadAllocatedBytes(self) - allocated;
+        Arrays.sort(times);
+        System.out.printf("%-22s %12.0f tuples/s %8.1f bytes/tuple%n", name,
+                          tuples / (times[runs / 2] / 1e9), allocated / (double) runs / tuples);
+    }
+}
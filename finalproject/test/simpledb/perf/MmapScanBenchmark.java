@@ -0,0 +1,67 @@
+package simpledb.perf;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares sequential SeqScan throughput over a HeapFile read with
+ * positional FileChannel reads against the same file memory mapped.
+ * <p>
+ * Each run starts from an empty BufferPool (but a warm OS page cache), so
+ * every page goes through HeapFile.readPage.  Usage:
+ * <pre>
+ *   java simpledb.perf.MmapScanBenchmark [rows] [columns] [runs]
+ * </pre>
+ */
+public class MmapScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(columns, rows, 1 << 16, null, null);
+        HeapFile table = Utility.openHeapFile(columns, f);
+        System.out.println(rows + " rows x " + columns + " int columns, "
+                           + table.numPages() + " pages");
+
+        // warm up both paths (and the OS page cache) before timing
+        scan(table, false);
+        scan(table, true);
+
+        for (boolean mapped : new boolean[] { false, true }) {
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++)
+                times[i] = scan(table, mapped);
+            Arrays.sort(times);
+            double ms = times[runs / 2] / 1e6;
+            System.out.printf("%-8s median %8.1f ms  %8.1f MB/s%n",
+                              mapped ? "mmap" : "channel", ms,
+                              f.length() / 1048576.0 / (ms / 1000));
+        }
+    }
+
+    /** @return the time taken to scan the whole table, in nanoseconds */
+    private static long scan(HeapFile table, boolean mapped) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.setMemoryMapped(mapped);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.id(), "t");
+        long start = System.nanoTime();
+        scan.open();
+        long n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n == 0)
+            throw new IllegalStateException("empty scan");
+        return elapsed;
+    }
+}
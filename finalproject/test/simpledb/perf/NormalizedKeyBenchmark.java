@@ -0,0 +1,73 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures OrderBy sorting in memory, in tuples per second, comparing
+ * fields with TupleComparator against comparing normalized keys (see
+ * NormalizedKey), the time to encode the keys included.  The tuples are
+ * sorted on a string field with a long common prefix, then on an int
+ * field.  Usage:
+ * <pre>
+ *   java simpledb.perf.NormalizedKeyBenchmark [tuples] [runs]
+ * </pre>
+ */
+public class NormalizedKeyBenchmark {
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        Random r = new Random(0);
+        List<Tuple> input = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("customer-" + r.nextInt(n), Type.STRING_LEN));
+            t.setField(1, new IntField(r.nextInt()));
+            input.add(t);
+        }
+        TupleIterator scan = new TupleIterator(td, input);
+
+        for (int field = 0; field < 2; field++) {
+            String name = field == 0 ? "string" : "int";
+            long[] plain = new long[runs];
+            long[] normalized = new long[runs];
+            // warm up
+            sort(scan, field, false);
+            sort(scan, field, true);
+            for (int i = 0; i < runs; i++) {
+                plain[i] = sort(scan, field, false);
+                normalized[i] = sort(scan, field, true);
+            }
+            report("TupleComparator, " + name, n, plain);
+            report("NormalizedKey, " + name, n, normalized);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /** @return the nanoseconds an OrderBy takes to sort scan on field */
+    private static long sort(DbIterator scan, int field, boolean normalized) throws Exception {
+        OrderBy sort = new OrderBy(field, true, scan);
+        sort.setMemoryBytes(Long.MAX_VALUE);
+        sort.setParallelThreshold(Integer.MAX_VALUE);
+        sort.setNormalizedKeys(normalized);
+        long start = System.nanoTime();
+        sort.open();
+        long time = System.nanoTime() - start;
+        sink += sort.next().getField(1).hashCode();
+        sort.close();
+        return time;
+    }
+
+    private static void report(String name, int tuples, long[] times) {
+        Arrays.sort(times);
+        System.out.printf("%-24s %12.0f tuples/s%n", name,
+                          tuples / (times[times.length / 2] / 1e9));
+    }
+}
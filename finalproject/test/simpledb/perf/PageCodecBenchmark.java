@@ -0,0 +1,189 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures HeapPage decode and encode throughput, in pages per second,
+ * against the stream codec HeapPage used before: a DataInputStream that
+ * materializes every field of every slot, and a DataOutputStream written
+ * one field (and one padding byte) at a time.
+ * <p>
+ * The page is full, with two int columns and one string column.  Usage:
+ * <pre>
+ *   java simpledb.perf.PageCodecBenchmark [pagesPerRun] [runs]
+ * </pre>
+ */
+public class PageCodecBenchmark {
+    private static final int TABLE_ID = -100;
+    private static final TupleDesc TD = new TupleDesc(
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(TABLE_ID), TD);
+        final HeapPageId pid = new HeapPageId(TABLE_ID, 0);
+        final byte[] data = buildPage();
+        if (!Arrays.equals(data, new HeapPage(pid, data).getPageData()))
+            throw new IllegalStateException("codecs disagree");
+
+        report("decode, stream (all fields)", pages, runs, new Runnable() {
+            public void run() {
+                sink += legacyDecode(data);
+            }
+        });
+        report("decode, buffer (all fields)", pages, runs, new Runnable() {
+            public void run() {
+                sink += decode(pid, data, TD.numFields());
+            }
+        });
+        report("decode, buffer (one field)", pages, runs, new Runnable() {
+            public void run() {
+                sink += decode(pid, data, 1);
+            }
+        });
+
+        final Tuple[] tuples = legacyTuples(data);
+        final HeapPage decoded = new HeapPage(pid, data);
+        decode(decoded, TD.numFields());
+        report("encode, stream", pages, runs, new Runnable() {
+            public void run() {
+                sink += legacyEncode(tuples).length;
+            }
+        });
+        report("encode, buffer", pages, runs, new Runnable() {
+            public void run() {
+                sink += decoded.getPageData().length;
+            }
+        });
+        System.out.println("(" + sink + ")");
+    }
+
+    private static void report(String name, int pages, int runs, Runnable op) {
+        // warm up
+        for (int i = 0; i < pages; i++)
+            op.run();
+        long[] times = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < pages; i++)
+                op.run();
+            times[r] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-30s %12.0f pages/s%n", name, pages / (times[runs / 2] / 1e9));
+    }
+
+    /** Build a full page of random tuples with the stream encoder. */
+    private static byte[] buildPage() throws IOException {
+        PageLayout layout = new PageLayout(TD);
+        Random r = new Random(0);
+        Tuple[] tuples = new Tuple[layout.getNumSlots()];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = new Tuple(TD);
+            tuples[i].setField(0, new IntField(r.nextInt()));
+            tuples[i].setField(1, new IntField(r.nextInt()));
+            tuples[i].setField(2, new StringField("value-" + r.nextInt(1000000), Type.STRING_LEN));
+        }
+        return legacyEncode(tuples);
+    }
+
+    private static long decode(HeapPageId pid, byte[] data, int fields) {
+        try {
+            return decode(new HeapPage(pid, data), fields);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long decode(HeapPage page, int fields) {
+        long n = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int j = 0; j < fields; j++)
+                n += t.getField(j).hashCode();
+        }
+        return n;
+    }
+
+    /** The stream decoder HeapPage used to run for every page. */
+    private static long legacyDecode(byte[] data) {
+        long n = 0;
+        for (Tuple t : legacyTuples(data)) {
+            if (t == null)
+                continue;
+            for (int j = 0; j < TD.numFields(); j++)
+                n += t.getField(j).hashCode();
+        }
+        return n;
+    }
+
+    private static Tuple[] legacyTuples(byte[] data) {
+        try {
+            PageLayout layout = new PageLayout(TD);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            int[] header = new int[layout.getHeaderInts()];
+            for (int i = 0; i < header.length; i++)
+                header[i] = dis.readInt();
+            Tuple[] tuples = new Tuple[layout.getNumSlots()];
+            for (int i = 0; i < tuples.length; i++) {
+                if ((header[i / 32] & (1 << (i % 32))) == 0) {
+                    for (int b = 0; b < TD.getSize(); b++)
+                        dis.readByte();
+                    continue;
+                }
+                Tuple t = new Tuple(TD);
+                for (int j = 0; j < TD.numFields(); j++)
+                    t.setField(j, TD.getType(j).parse(dis));
+                tuples[i] = t;
+            }
+            return tuples;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** The stream encoder getPageData used; a null slot is empty. */
+    private static byte[] legacyEncode(Tuple[] tuples) {
+        try {
+            PageLayout layout = new PageLayout(TD);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(layout.getBytesPerPage());
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (int h = 0; h < layout.getHeaderInts(); h++) {
+                int word = 0;
+                for (int b = 0; b < 32; b++) {
+                    int slot = h * 32 + b;
+                    if (slot < tuples.length && tuples[slot] != null)
+                        word |= 1 << b;
+                }
+                dos.writeInt(word);
+            }
+            for (Tuple t : tuples) {
+                if (t == null) {
+                    for (int b = 0; b < TD.getSize(); b++)
+                        dos.writeByte(0);
+                    continue;
+                }
+                for (int j = 0; j < TD.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            int padding = BufferPool.PAGE_SIZE - tuples.length * TD.getSize();
+            for (int b = 0; b < padding; b++)
+                dos.writeByte(0);
+            dos.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
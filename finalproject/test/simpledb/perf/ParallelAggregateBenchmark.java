@@ -0,0 +1,57 @@
+package simpledb.perf;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures GROUP BY throughput, in rows per second, of Aggregate over a
+ * SeqScan at increasing parallelism, up to the number of cores.
+ * <p>
+ * The BufferPool is sized to hold the whole table and warmed first, so the
+ * runs measure aggregation rather than I/O.  Usage:
+ * <pre>
+ *   java simpledb.perf.ParallelAggregateBenchmark [rows] [groups] [runs]
+ * </pre>
+ */
+public class ParallelAggregateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, groups, null, null);
+        HeapFile table = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(table.numPages() + 16);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(rows + " rows, " + table.numPages() + " pages, " + cores + " cores");
+
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            // warm up, and pull every page into the BufferPool
+            aggregate(table, threads);
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++)
+                times[i] = aggregate(table, threads);
+            Arrays.sort(times);
+            System.out.printf("%2d threads %12.0f rows/s%n", threads, rows / (times[runs / 2] / 1e9));
+        }
+    }
+
+    /** @return the time taken to aggregate the table, in nanoseconds */
+    private static long aggregate(HeapFile table, int threads) throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.id(), "t"), 1, 0, Aggregator.Op.AVG);
+        agg.setParallelism(threads);
+        long start = System.nanoTime();
+        agg.open();
+        while (agg.hasNext())
+            agg.next();
+        agg.close();
+        long time = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return time;
+    }
+}
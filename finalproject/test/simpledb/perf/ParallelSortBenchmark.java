@@ -0,0 +1,85 @@
+package simpledb.perf;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import simpledb.*;
+
+/**
+ * Measures the time OrderBy takes to sort random int tuples in memory,
+ * single-threaded and then on ForkJoinPools of 1, 2, 4, ... worker
+ * threads up to the number of cores, or maxThreads.  Each sort runs as a
+ * task of the pool, so Arrays.parallelSort splits its work across that
+ * pool's workers.
+ * <p>
+ * Arrays.parallelSort sorts on the calling thread if the common pool has
+ * a parallelism of 1, as it does on a single core machine; set
+ * java.util.concurrent.ForkJoinPool.common.parallelism to measure there.
+ * Usage:
+ * <pre>
+ *   java -Xmx4g simpledb.perf.ParallelSortBenchmark [tuples] [runs] [maxThreads]
+ * </pre>
+ */
+public class ParallelSortBenchmark {
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Random r = new Random(0);
+        List<Tuple> input = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++)
+            input.add(Utility.getHeapTuple(new int[] { r.nextInt(), i }));
+        TupleIterator scan = new TupleIterator(input.get(0).getTupleDesc(), input);
+
+        System.out.println(n + " tuples, " + Runtime.getRuntime().availableProcessors()
+                           + " cores, common pool parallelism "
+                           + ForkJoinPool.getCommonPoolParallelism());
+        report("sequential", runs, null, sort(scan, Integer.MAX_VALUE));
+        int cores = args.length > 2 ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+        for (int p = 1; ; p = Math.min(p * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            report(p + " thread(s)", runs, pool, sort(scan, 1));
+            pool.shutdown();
+            if (p == cores)
+                break;
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /** @return a task sorting scan in an OrderBy with the given parallel threshold */
+    private static Callable<Long> sort(final DbIterator scan, final int threshold) {
+        return new Callable<Long>() {
+            public Long call() throws Exception {
+                OrderBy sort = new OrderBy(0, true, scan);
+                sort.setMemoryBytes(Long.MAX_VALUE);
+                sort.setParallelThreshold(threshold);
+                long start = System.nanoTime();
+                sort.open();
+                long time = System.nanoTime() - start;
+                sink += sort.next().getField(1).hashCode();
+                sort.close();
+                return time;
+            }
+        };
+    }
+
+    private static void report(String name, int runs, ForkJoinPool pool, Callable<Long> op)
+        throws Exception {
+        // warm up
+        run(pool, op);
+        long[] times = new long[runs];
+        for (int r = 0; r < runs; r++)
+            times[r] = run(pool, op);
+        Arrays.sort(times);
+        System.out.printf("%-14s %10.0f ms%n", name, times[runs / 2] / 1e6);
+    }
+
+    private static long run(ForkJoinPool pool, Callable<Long> op) throws Exception {
+        return pool == null ? op.call() : pool.submit(op).get();
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures in-memory sorts of tuples, in tuples per second, with
+ * TupleComparator against the comparator OrderBy used before, which asked
+ * Field.compare for EQUALS and then GREATER_THAN.  Each run sorts a fresh
+ * copy of the same random int tuples, on one field or on two; the two
+ * comparators take turns so that neither is favoured by JIT warm-up.
+ * Usage:
+ * <pre>
+ *   java simpledb.perf.SortBenchmark [tuples] [runs]
+ * </pre>
+ */
+public class SortBenchmark {
+
+    // keeps results live so the JIT cannot drop the work being timed
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+
+        Random r = new Random(0);
+        Tuple[] input = new Tuple[n];
+        for (int i = 0; i < n; i++)
+            input[i] = Utility.getHeapTuple(new int[] { r.nextInt(n / 10), r.nextInt() });
+        TupleDesc td = input[0].getTupleDesc();
+
+        for (int[] keys : new int[][] { { 0 }, { 0, 1 } }) {
+            boolean[] asc = new boolean[keys.length];
+            Arrays.fill(asc, true);
+            Comparator<Tuple> legacy = new LegacyComparator(keys);
+            Comparator<Tuple> cmp = new TupleComparator(td, keys, asc);
+            long[] legacyTimes = new long[runs];
+            long[] times = new long[runs];
+            // warm up
+            sort(input, legacy);
+            sort(input, cmp);
+            for (int i = 0; i < runs; i++) {
+                legacyTimes[i] = sort(input, legacy);
+                times[i] = sort(input, cmp);
+            }
+            report("Field.compare, " + keys.length + " key(s)", n, legacyTimes);
+            report("TupleComparator, " + keys.length + " key(s)", n, times);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /** @return the nanoseconds taken to sort a copy of input */
+    private static long sort(Tuple[] input, Comparator<Tuple> cmp) {
+        Tuple[] copy = input.clone();
+        long start = System.nanoTime();
+        Arrays.sort(copy, cmp);
+        long time = System.nanoTime() - start;
+        sink += copy[0].hashCode();
+        return time;
+    }
+
+    private static void report(String name, int tuples, long[] times) {
+        Arrays.sort(times);
+        System.out.printf("%-28s %12.0f tuples/s%n", name,
+                          tuples / (times[times.length / 2] / 1e9));
+    }
+
+    /** The comparison OrderBy used to make, for each key in turn. */
+    private static class LegacyComparator implements Comparator<Tuple> {
+        private final int[] fields;
+
+        LegacyComparator(int[] fields) {
+            this.fields = fields;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            for (int field : fields) {
+                Field t1 = o1.getField(field);
+                Field t2 = o2.getField(field);
+                if (t1.compare(Predicate.Op.EQUALS, t2))
+                    continue;
+                return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+            }
+            return 0;
+        }
+    }
+}
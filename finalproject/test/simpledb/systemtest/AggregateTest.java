@@ -1,19 +1,30 @@
 package simpledb.systemtest;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import simpledb.*;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 public class AggregateTest {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult, 1);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult, int parallelism)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.id(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -88,6 +99,18 @@ public class AggregateTest {
         validateAggregate(table, operation, 1, groupColumn, expected);
     }
 
+    private final static int PARALLEL_ROWS = 20000;
+    private final static int PARALLELISM = 4;
+    private void doParallelAggregate(Aggregator.Op operation, int groupColumn)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, PARALLEL_ROWS, MAX_VALUE, null, createdTuples);
+        ArrayList<ArrayList<Integer>> expected =
+                aggregate(createdTuples, operation, 1, groupColumn);
+        validateAggregate(table, operation, 1, groupColumn, expected, PARALLELISM);
+    }
+
     @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
         doAggregate(Aggregator.Op.SUM, 0);
     }
@@ -113,6 +136,117 @@ public class AggregateTest {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        for (Aggregator.Op op : Aggregator.Op.values())
+            doParallelAggregate(op, 0);
+    }
+
+    @Test public void testParallelNoGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        doParallelAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
+        doParallelAggregate(Aggregator.Op.COUNT, Aggregator.NO_GROUPING);
+    }
+
+    /** A GROUP BY whose groups outgrow the memory budget spills, and is still exact. */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, PARALLEL_ROWS, PARALLEL_ROWS, null, createdTuples);
+        ArrayList<ArrayList<Integer>> expected =
+                aggregate(createdTuples, Aggregator.Op.AVG, 1, 0);
+
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.id(), ""), 1, 0, Aggregator.Op.AVG);
+        ag.setMemoryBytes(16 * 1024);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Several aggregates grouped by two columns, in parallel and spilling,
+     * match computing each aggregate on its own.
+     */
+    @Test public void testMultiple() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, PARALLEL_ROWS, MAX_VALUE, null, createdTuples);
+        Aggregator.Op[] ops = Aggregator.Op.values();
+
+        // group on columns 0 and 1 by folding them into one key column
+        ArrayList<ArrayList<Integer>> keyed = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            ArrayList<Integer> k = new ArrayList<Integer>();
+            k.add(t.get(0) * MAX_VALUE + t.get(1));
+            k.add(t.get(2));
+            keyed.add(k);
+        }
+        HashMap<Integer, ArrayList<Integer>> rows = new HashMap<Integer, ArrayList<Integer>>();
+        for (Aggregator.Op op : ops) {
+            for (ArrayList<Integer> r : aggregate(keyed, op, 1, 0)) {
+                ArrayList<Integer> row = rows.get(r.get(0));
+                if (row == null) {
+                    row = new ArrayList<Integer>();
+                    row.add(r.get(0) / MAX_VALUE);
+                    row.add(r.get(0) % MAX_VALUE);
+                    rows.put(r.get(0), row);
+                }
+                row.add(r.get(1));
+            }
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(rows.values());
+
+        int[] afields = new int[ops.length];
+        java.util.Arrays.fill(afields, 2);
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.id(), ""), afields,
+                                     new int[] { 0, 1 }, ops);
+        ag.setParallelism(PARALLELISM);
+        ag.setMemoryBytes(16 * 1024);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of spill files in the temporary directory */
+    private static int spillFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("spill") && name.endsWith(".dat");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+    /**
+     * A parallel aggregate whose last worker fails still deletes the spill
+     * files of every worker.
+     */
+    @Test public void testParallelFailure() throws IOException, DbException, TransactionAbortedException {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(
+                COLUMNS, PARALLEL_ROWS, PARALLEL_ROWS, null, null);
+        HeapFile table = new HeapFile(f) {
+            public Page readPage(PageId pid) {
+                if (pid.pageno() == numPages() - 1)
+                    throw new NoSuchElementException("unreadable page");
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(COLUMNS));
+
+        int before = spillFiles();
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.id(), ""), 1, 0, Aggregator.Op.SUM);
+        ag.setParallelism(PARALLELISM);
+        ag.setMemoryBytes(16 * 1024);
+        try {
+            ag.open();
+            fail("expected the unreadable page to fail the aggregate");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(before, spillFiles());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,95 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs several scans of the same table at once through the BufferPool.
+ */
+public class ConcurrentScanTest {
+    private static final int THREADS = 8;
+    private static final int PAGES = 30;
+
+    /** Counts the number of readPage operations, from any thread. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger(0);
+
+        public CountingHeapFile(File f) {
+            super(f);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    @After public void resetBufferPool() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void runScans(final CountingHeapFile table,
+            final ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        final Throwable[] errors = new Throwable[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int me = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        SystemTestUtil.matchTuples(table, tuples);
+                    } catch (Throwable t) {
+                        errors[me] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+            if (errors[i] != null)
+                throw new AssertionError(errors[i]);
+        }
+    }
+
+    /** Concurrent misses on the same pages are coalesced into one read each. */
+    @Test public void testCoalescedReads() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 1024 * PAGES, 1000, null, tuples);
+        CountingHeapFile table = new CountingHeapFile(f);
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(1));
+
+        runScans(table, tuples);
+        assertEquals(PAGES, table.readCount.get());
+        assertEquals(PAGES, Database.getBufferPool().getMissCount()
+                     + Database.getBufferPool().getPrefetchCount());
+    }
+
+    /** Concurrent scans still see every tuple while evicting constantly. */
+    @Test public void testSmallPool() throws Exception {
+        Database.resetBufferPool(THREADS + 2);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 1024 * PAGES, 1000, null, tuples);
+        CountingHeapFile table = new CountingHeapFile(f);
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(1));
+
+        runScans(table, tuples);
+        assertTrue(Database.getBufferPool().getEvictionCount() > 0);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ConcurrentScanTest.class);
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables that do not fit in the buffer pool with each eviction policy.
+ */
+public class EvictionTest {
+    private static final int POOL_PAGES = 10;
+
+    @After public void resetBufferPool() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void validateScan(String policy)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, policy);
+
+        // 2 int columns -> 512 tuples per page; 30 pages worth of data
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 30, null, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // every page read, on demand or ahead, fills a frame
+        long reads = bp.getMissCount() + bp.getPrefetchCount();
+        assertEquals(60, bp.getHitCount() + bp.getMissCount());
+        assertTrue(reads >= 30);
+        assertEquals(reads - POOL_PAGES, bp.getEvictionCount());
+    }
+
+    @Test public void testLru() throws Exception {
+        validateScan("lru");
+    }
+
+    @Test public void testClock() throws Exception {
+        validateScan("clock");
+    }
+
+    @Test public void testLruK() throws Exception {
+        validateScan("lru-k");
+    }
+
+    @Test public void test2Q() throws Exception {
+        validateScan("2q");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(EvictionTest.class);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables stored in the PAX (column) page layout.
+ */
+public class PaxScanTest {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 1500;
+
+    private PaxFile createPaxFile(ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1000, null, tuples);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, f, BufferPool.PAGE_SIZE, COLUMNS);
+        PaxFile table = new PaxFile(f);
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(COLUMNS));
+        return table;
+    }
+
+    /** A full scan of a PaxFile returns every tuple. */
+    @Test public void testScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createPaxFile(tuples);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** A projected scan returns just the requested fields, in order. */
+    @Test public void testProjectedScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createPaxFile(tuples);
+
+        int[] fields = new int[] { 2, 0 };
+        ArrayList<ArrayList<Integer>> projected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> p = new ArrayList<Integer>();
+            for (int f : fields)
+                p.add(t.get(f));
+            projected.add(p);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.id(), "t", fields);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t." + Utility.getTupleDesc(COLUMNS).getFieldName(2),
+                     scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, projected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A PaxPage writes itself back out in the layout it was read in. */
+    @Test public void testPageData() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createPaxFile(tuples);
+
+        HeapPageId pid = new HeapPageId(table.id(), 0);
+        HeapPage page = (HeapPage) table.readPage(pid);
+        assertTrue(page instanceof PaxPage);
+        byte[] onDisk = page.getPageData();
+        // decode every field, then encode the page again
+        for (java.util.Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            it.next().toString();
+        assertArrayEquals(onDisk, page.getPageData());
+        assertArrayEquals(onDisk, ((HeapPage) table.readPage(pid)).getPageData());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PaxScanTest.class);
+    }
+}
@@ -109,6 +109,30 @@ public class ScanTest {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a sequential scan reads the rest of the table ahead. */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        BufferPool bp = Database.getBufferPool();
+        assertTrue(bp.getPrefetchWindow() > 0);
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 1024 * PAGES, null, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // the first pages are read on demand until the scan is seen to be
+        // sequential; every later page was already read or in flight
+        assertEquals(2, bp.getMissCount());
+        assertEquals(PAGES - 2, bp.getPrefetchCount());
+        assertEquals(PAGES - 2, bp.getHitCount());
+
+        // with read-ahead off every page is a miss
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchWindow(0);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);